@@ -0,0 +1,47 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Recorded pages the benchmarks run on, so no benchmark needs network access. Food pages are named after their BLS
+ * key.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+final class Fixtures {
+    static final String SEARCH_RESULTS = "search-results";
+
+    private Fixtures() {
+    }
+
+    static String read(String name) throws IOException {
+        try (InputStream in = Fixtures.class.getResourceAsStream("/fixtures/" + name + ".html")) {
+            if(in == null) {
+                throw new FileNotFoundException("No fixture " + name);
+            }
+            ByteArrayOutputStream page = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1 << 14];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                page.write(buffer, 0, read);
+            }
+            return new String(page.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    static URL getFoodURL(String blsKey) throws IOException {
+        return new URL("http://www.ernaehrung.de/lebensmittel/de/" + blsKey + "/Lebensmittel.php");
+    }
+
+    /**
+     * @return record of a recorded food page, parsed with the Jsoup parser
+     */
+    static FoodRecord parse(String blsKey) throws IOException {
+        return BLSCrawler.parseFoodPage(blsKey, org.jsoup.Jsoup.parse(read(blsKey), getFoodURL(blsKey).toString()));
+    }
+}
@@ -0,0 +1,33 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extraction of the food URLs from the recorded search results page by {@link FoodIndexReader}.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FoodIndexBenchmark {
+    private String page;
+
+    @Setup
+    public void setUp() throws IOException {
+        page = Fixtures.read(Fixtures.SEARCH_RESULTS);
+    }
+
+    @Benchmark
+    public int readFoodURLs(Blackhole blackhole) throws IOException, InterruptedException {
+        return FoodIndexReader.readFoodURLs(new StringReader(page), blackhole::consume);
+    }
+}
@@ -0,0 +1,43 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import org.jsoup.Jsoup;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parse throughput of a single food page, from page text to {@link FoodRecord}, for both parsers.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FoodPageParseBenchmark {
+    @Param({"B100000", "F110100", "M111100", "U010000"})
+    public String blsKey;
+
+    @Param({"jsoup", "fast"})
+    public String parser;
+
+    private String page;
+    private String baseURI;
+
+    @Setup
+    public void setUp() throws IOException {
+        page = Fixtures.read(blsKey);
+        baseURI = Fixtures.getFoodURL(blsKey).toString();
+    }
+
+    @Benchmark
+    public FoodRecord parse() throws IOException {
+        if(parser.equals("fast")) {
+            return BLSCrawler.parseFoodPage(blsKey, page);
+        }
+        return BLSCrawler.parseFoodPage(blsKey, Jsoup.parse(page, baseURI));
+    }
+}
@@ -0,0 +1,70 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queries of a {@link NutrientIndex} over a BLS sized catalog. Amounts are random, roughly in the ranges of the BLS,
+ * and a share of them is missing, like in the crawled data.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NutrientIndexBenchmark {
+    @Param({"15000"})
+    public int rows;
+
+    private NutrientIndex index;
+    private int row = 0;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        List<FoodRecord> records = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            FoodRecord record = new FoodRecord(String.format("B%06d", i));
+            record.set(BLSNutrient.EIWEISS_PROTEIN, random.nextDouble() * 40000);
+            record.set(BLSNutrient.KOHLENHYDRATE_RESORBIERBAR, random.nextDouble() * 80000);
+            if(random.nextInt(10) > 0) {
+                record.set(BLSNutrient.FETT, Math.exp(random.nextDouble() * 11));
+            }
+            if(random.nextBoolean()) {
+                record.set(BLSNutrient.VITAMIN_C_ASCORBINSAEURE, random.nextDouble() * 200);
+            }
+            records.add(record);
+        }
+        index = NutrientIndex.of(records);
+    }
+
+    @Benchmark
+    public int[] filterLeanProtein() {
+        return index.filter(NutrientIndex.greaterThan(BLSNutrient.EIWEISS_PROTEIN, 20000),
+                NutrientIndex.lessThan(BLSNutrient.FETT, 5000));
+    }
+
+    @Benchmark
+    public int[] filterSelective() {
+        return index.filter(NutrientIndex.greaterThan(BLSNutrient.EIWEISS_PROTEIN, 38000),
+                NutrientIndex.lessThan(BLSNutrient.FETT, 5000));
+    }
+
+    @Benchmark
+    public int[] topVitaminC() {
+        return index.top(BLSNutrient.VITAMIN_C_ASCORBINSAEURE, 50);
+    }
+
+    @Benchmark
+    public int[] mostSimilar() {
+        row = (row + 1) % rows;
+        return index.mostSimilar(row, 10, BLSNutrient.EIWEISS_PROTEIN, BLSNutrient.FETT, BLSNutrient.KOHLENHYDRATE_RESORBIERBAR);
+    }
+}
@@ -0,0 +1,64 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mapping of the name/amount/unit rows of a food page to BLS nutrients, including unit conversion, without the cost
+ * of parsing HTML.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NutrientMappingBenchmark {
+    @Param({"B100000", "M111100"})
+    public String blsKey;
+
+    private String foodName;
+    private final List<String[]> nutrients = new ArrayList<>();
+
+    @Setup
+    public void setUp() throws IOException {
+        FoodPageExtractor.extract(Fixtures.read(blsKey), new FoodPageExtractor.Handler() {
+            @Override
+            public void foodName(String name) {
+                foodName = name;
+            }
+
+            @Override
+            public void nutrient(String websiteNutrientLongName, String nutrientAmount, String unit) {
+                nutrients.add(new String[]{websiteNutrientLongName, nutrientAmount, unit});
+            }
+        });
+    }
+
+    @Benchmark
+    public FoodRecord mapNutrients() {
+        BLSCrawler.FoodValues food = new BLSCrawler.FoodValues(blsKey);
+        food.foodName(foodName);
+        for (String[] nutrient : nutrients) {
+            food.nutrient(nutrient[0], nutrient[1], nutrient[2]);
+        }
+        return food.record;
+    }
+
+    @Benchmark
+    public double parseAmount() {
+        double sum = 0;
+        for (String[] nutrient : nutrients) {
+            if(!nutrient[1].isEmpty()) {
+                sum += FoodRecord.parseAmount(nutrient[1], 3);
+            }
+        }
+        return sum;
+    }
+}
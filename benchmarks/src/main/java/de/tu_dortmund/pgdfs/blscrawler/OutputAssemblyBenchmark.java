@@ -0,0 +1,81 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Assembly of the complete SQL dump of a BLS sized catalog by {@link SQLDumpWriter}. The output is discarded, so
+ * the benchmark measures the writer and not the disk.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 20)
+@Fork(1)
+public class OutputAssemblyBenchmark {
+    private static final String[] BLS_KEYS = {"B100000", "F110100", "M111100", "U010000"};
+
+    @Param({"15000"})
+    public int rows;
+
+    @Param({"1000"})
+    public int insertChunkSize;
+
+    private FoodRecord[] records;
+
+    @Setup
+    public void setUp() throws IOException {
+        records = new FoodRecord[rows];
+        FoodRecord[] fixtures = new FoodRecord[BLS_KEYS.length];
+        for (int i = 0; i < fixtures.length; i++) {
+            fixtures[i] = Fixtures.parse(BLS_KEYS[i]);
+        }
+        //distinct keys, names and amounts, so the rows do not share any text
+        for (int i = 0; i < rows; i++) {
+            FoodRecord fixture = fixtures[i % fixtures.length];
+            FoodRecord record = FoodRecord.parseLine(fixture.toLine().replace(fixture.getBLSKey(), String.format("%s%04d", fixture.getBLSKey().substring(0, 3), i)));
+            record.setFoodName(fixture.getFoodName() + " " + i);
+            record.set(BLSNutrient.WASSER, i / 10.0);
+            records[i] = record;
+        }
+    }
+
+    @Benchmark
+    public long writeSQLDump() throws IOException {
+        CountingWriter out = new CountingWriter();
+        try (SQLDumpWriter writer = new SQLDumpWriter(out, "USE foodscout;", insertChunkSize, "", new CrawlMetrics())) {
+            for (FoodRecord record : records) {
+                writer.writeRow(record.getBLSKey(), record);
+            }
+        }
+        return out.count;
+    }
+
+    private static class CountingWriter extends Writer {
+        private long count = 0;
+
+        @Override
+        public void write(char[] buffer, int offset, int length) {
+            count += length;
+        }
+
+        @Override
+        public void write(String str, int offset, int length) {
+            count += length;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
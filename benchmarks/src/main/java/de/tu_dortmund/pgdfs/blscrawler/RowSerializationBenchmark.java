@@ -0,0 +1,48 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization of a single {@link FoodRecord} into an SQL value list and into a journal line.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RowSerializationBenchmark {
+    private FoodRecord record;
+    private String line;
+    private final StringBuilder buffer = new StringBuilder(1 << 12);
+
+    @Setup
+    public void setUp() throws IOException {
+        record = Fixtures.parse("B100000");
+        line = record.toLine();
+    }
+
+    @Benchmark
+    public int appendValueList() {
+        buffer.setLength(0);
+        record.appendValueList(buffer);
+        return buffer.length();
+    }
+
+    @Benchmark
+    public int appendLine() {
+        buffer.setLength(0);
+        record.appendLine(buffer);
+        return buffer.length();
+    }
+
+    @Benchmark
+    public FoodRecord parseLine() {
+        return FoodRecord.parseLine(line);
+    }
+}
@@ -0,0 +1,72 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the number of requests in flight and adapts the limit AIMD-style to what the server tolerates. The limit
+ * grows by <code>1 / limit</code> for every fast response while it is mostly used, i.e. by about one per round trip
+ * of a full window, and is halved when a request is rejected with <code>429</code> or a server error, times out, or
+ * takes longer than the latency target. Only requests started after the last decrease can decrease it again, so one
+ * burst of failures halves the limit once.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+class AdaptiveConcurrencyLimiter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AdaptiveConcurrencyLimiter.class);
+    private static final double DECREASE_FACTOR = 0.5;
+
+    private final int maxLimit;
+    private final long latencyTargetNanos;
+    private double limit;
+    private int inFlight = 0;
+    private long lastDecreaseNanos;
+
+    AdaptiveConcurrencyLimiter(int maxLimit, long latencyTargetMillis) {
+        if(maxLimit < 1) {
+            throw new IllegalArgumentException("Maximum number of in-flight requests must be positive, got " + maxLimit);
+        }
+        this.maxLimit = maxLimit;
+        this.latencyTargetNanos = TimeUnit.MILLISECONDS.toNanos(latencyTargetMillis);
+        this.limit = Math.max(1, maxLimit / 4);
+        this.lastDecreaseNanos = System.nanoTime();
+    }
+
+    /**
+     * Blocks until the number of requests in flight is below the limit.
+     *
+     * @return start time of the request, to be passed to {@link #release(long, boolean)}
+     */
+    synchronized long acquire() throws InterruptedException {
+        while (inFlight >= (int) limit) {
+            wait();
+        }
+        inFlight++;
+        return System.nanoTime();
+    }
+
+    /**
+     * @param overloaded whether the request failed in a way that suggests the server is overloaded
+     */
+    synchronized void release(long startNanos, boolean overloaded) {
+        inFlight--;
+        long latencyNanos = System.nanoTime() - startNanos;
+        if(overloaded || latencyNanos > latencyTargetNanos) {
+            if(startNanos - lastDecreaseNanos > 0) {
+                limit = Math.max(1, limit * DECREASE_FACTOR);
+                lastDecreaseNanos = System.nanoTime();
+                LOGGER.debug("Decreased concurrency limit to " + (int) limit + (overloaded ? " after overload" : " after " + TimeUnit.NANOSECONDS.toMillis(latencyNanos) + " ms latency"));
+            }
+        } else if(inFlight * 2 >= (int) limit && limit < maxLimit) {
+            //additive increase: one full window of fast responses raises the limit by one
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+        notifyAll();
+    }
+
+    synchronized int getLimit() {
+        return (int) limit;
+    }
+}
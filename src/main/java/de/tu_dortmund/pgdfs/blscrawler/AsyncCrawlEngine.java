@@ -0,0 +1,70 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Fetches food pages with the non-blocking {@link CrawlerHttpClient}, so hundreds of requests can be in flight on a handful of I/O
+ * threads. An adaptive limiter decides how many requests may be outstanding at any time. Downloaded pages are parsed
+ * by the {@link ParseStage}. A request is only sent once its page has a slot in the parse queue, so the I/O threads
+ * never wait for parsing.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+class AsyncCrawlEngine implements CrawlEngine {
+    private final CrawlerHttpClient httpClient;
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final ParseStage parseStage;
+
+    AsyncCrawlEngine(CrawlerHttpClient httpClient, AdaptiveConcurrencyLimiter limiter, ParseStage parseStage) {
+        this.httpClient = httpClient;
+        this.limiter = limiter;
+        this.parseStage = parseStage;
+    }
+
+    /**
+     * Blocks while the parse queue is full or the limiter allows no further requests.
+     */
+    @Override
+    public void submit(int index, URL foodURL, FoodPageProcessor processor, RowSink rowSink) throws InterruptedException {
+        parseStage.reserve();
+        long startNanos;
+        try {
+            startNanos = limiter.acquire();
+        } catch (InterruptedException e) {
+            parseStage.release();
+            throw e;
+        }
+        CompletableFuture<FetchedPage> page;
+        try {
+            page = fetch(foodURL, processor.getRequestHeaders(foodURL), startNanos);
+        } catch (RuntimeException e) {
+            limiter.release(startNanos, false);
+            page = new CompletableFuture<>();
+            page.completeExceptionally(e);
+        }
+        page.whenComplete((fetchedPage, throwable) -> {
+            if(throwable != null) {
+                parseStage.release();
+                rowSink.accept(CrawlEngine.failed(throwable));
+                return;
+            }
+            try {
+                parseStage.parse(index, foodURL, fetchedPage, processor, rowSink);
+            } catch (RuntimeException e) {
+                rowSink.accept(CrawlEngine.failed(e));
+            }
+        });
+    }
+
+    private CompletableFuture<FetchedPage> fetch(URL foodURL, Map<String, String> headers, long startNanos) {
+        return httpClient.fetchPage(foodURL, headers).whenComplete((page, throwable) ->
+                limiter.release(startNanos, throwable instanceof FetchException && ((FetchException) throwable).isRetryable()));
+    }
+
+    @Override
+    public void close() {
+        parseStage.close();
+    }
+}
@@ -7,12 +7,14 @@ import org.jsoup.select.Elements;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.math.BigDecimal;
-import java.math.RoundingMode;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.*;
@@ -23,10 +25,14 @@ import java.util.stream.Collectors;
  * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
  */
 public class BLSCrawler {
-    private static final String REQUEST_URL = "http://www.ernaehrung.de/lebensmittel/suche/";
+    static final String DEFAULT_BASE_URL = "http://www.ernaehrung.de/lebensmittel/";
+    static final String SEARCH_PATH = "suche/";
+    static final String FOOD_PATH = "de/";
+    static final String ENGLISH_FOOD_PATH = "en/";
     private static final Logger LOGGER = LoggerFactory.getLogger(BLSCrawler.class);
-    private static final String CREATE_TABLE_STATEMENT = "USE foodscout;\n" +
-            "CREATE OR REPLACE TABLE food (\n" +
+    private static final String DATABASE_STATEMENT = "USE foodscout;";
+    //columns of the food table, shared by the SQL dump and the staging table of the JDBC loader
+    static final String TABLE_DEFINITION = "(\n" +
             "SBLS CHAR(7) NOT NULL PRIMARY KEY COMMENT 'BLS-Schlüssel' CHECK(SBLS REGEXP '^[a-zA-Z][0-9][0-9a-zA-Z]{2}[0-9]{3}$'),\n" +
             "ST VARCHAR(60) NOT NULL COMMENT 'Text',\n" +
             "STE VARCHAR(60) DEFAULT NULL COMMENT 'Text englisch',\n" +
@@ -172,7 +178,12 @@ public class BLSCrawler {
             "INDEX btree_food_st USING BTREE (ST)\n" +
             ")\n" +
             "CHARACTER SET 'utf8',\n" +
-            "COMMENT 'version as of " + LocalDateTime.now().toString() + "';";
+            "COMMENT 'version as of " + LocalDateTime.now().toString() + "'";
+    static final String CREATE_TABLE_STATEMENT = DATABASE_STATEMENT + "\n" +
+            "CREATE OR REPLACE TABLE food " + TABLE_DEFINITION + ";";
+    //increase whenever pages are mapped to different rows, e.g. a changed nutrient or unit mapping or table column, so
+    //the next delta crawl fetches every page in full instead of keeping the rows of pages the server reports unmodified
+    static final int MAPPING_VERSION = 1;
     private static final HashMap<String, BLSNutrient> WEBSITE_NUTRIENT_LONG_NAME_TO_BLS_NUTRIENT_MAP = new HashMap<>();
     static {
         //Hauptnährstoffe
@@ -347,177 +358,545 @@ public class BLSCrawler {
         WEBSITE_NUTRIENT_LONG_NAME_TO_BLS_NUTRIENT_MAP.put("durchschn. Verzehr", BLSNutrient.MITTLERE_PORTIONSGROESSE);
     }
 
+    /**
+     * @return BLS nutrients by their name on the website
+     */
+    static Map<String, BLSNutrient> getWebsiteNutrientMap() {
+        return Collections.unmodifiableMap(WEBSITE_NUTRIENT_LONG_NAME_TO_BLS_NUTRIENT_MAP);
+    }
+
+    private static final HashMap<String, Integer> UNIT_TO_MG_EXPONENT_MAP = new HashMap<>(); //power of ten to convert to mg
+    static {
+        UNIT_TO_MG_EXPONENT_MAP.put("g", 3);
+        UNIT_TO_MG_EXPONENT_MAP.put("mg", 0);
+        UNIT_TO_MG_EXPONENT_MAP.put("µg", -3);
+    }
+
     public static void main(String[] args) throws IOException {
-        if(args.length != 1) {
-            throw new IllegalArgumentException("Expected exactly one argument: path to file to save generated SQL to");
-        } else if(new File(args[0]).exists()) {
-            throw new IllegalArgumentException("Output file \"" + args[0] + "\" already exists! Delete the file and restart.");
+        CrawlerOptions options = CrawlerOptions.parse(args);
+        Path outputPath = (options.getOutputPath() != null ? Paths.get(options.getOutputPath()) : null);
+        Path journalPath = (options.getJournal() != null ? Paths.get(options.getJournal()) : null);
+        if(outputPath != null && Files.exists(outputPath)) {
+            if(journalPath == null || !Files.exists(journalPath)) {
+                throw new IllegalArgumentException("Output file \"" + outputPath + "\" already exists! Delete the file and restart.");
+            }
+            //the output of an interrupted crawl is regenerated from the journal
+            LOGGER.warn("Replacing output file " + outputPath + " of interrupted crawl, resuming from journal " + journalPath);
+            Files.delete(outputPath);
         }
-
-        List<URL> foodURLs = getFoodURLs();
-        String insertStatement = crawlFoodURLs(foodURLs);
-        try (FileWriter fw = new FileWriter(args[0])) {
-            fw.write(CREATE_TABLE_STATEMENT + "\n\n" + insertStatement);
-            LOGGER.info("Generated SQL saved to " + new File(args[0]).getAbsolutePath());
+        if(options.getMergeShards() != null) {
+            mergeShards(options, outputPath);
+            return;
         }
-    }
 
-    private static List<URL> getFoodURLs() throws IOException {
-        Document resultsDoc = Jsoup.connect(REQUEST_URL)
-                .data("nameInput", "")
-                .data("origin", "bls")
-                .data("language", "de")
-                .maxBodySize(0)
-                .post();
-        Iterator<Element> it = resultsDoc.getElementById("wrapper").getElementsByClass("list-group-item").iterator();
-        List<URL> foodURLs = new ArrayList<>(15000); //BLS contains 14.814 foods (2017-05-12)
-        while (it.hasNext()) {
-            foodURLs.add(new URL(it.next().attr("href")));
+        CrawlMetrics crawlMetrics = CrawlMetrics.start(options.getMetricsFile() != null ? Paths.get(options.getMetricsFile()) : null, options.getMetricsInterval());
+        Shard shard = options.getShard();
+        DeltaSQLWriter deltaSQLWriter = null;
+        List<FoodRowWriter> rowWriters = new ArrayList<>();
+        if(shard != null) {
+            rowWriters.add(new ShardWriter(outputPath, options.isCompressed(), shard, crawlMetrics));
+        } else if(options.getDeltaSnapshot() != null) {
+            deltaSQLWriter = new DeltaSQLWriter(outputPath, options.isCompressed(), DATABASE_STATEMENT, options.getInsertChunkSize(), Paths.get(options.getDeltaSnapshot()), crawlMetrics);
+            rowWriters.add(deltaSQLWriter);
+        } else if(outputPath != null) {
+            rowWriters.add(new SQLDumpWriter(outputPath, options.isCompressed(), CREATE_TABLE_STATEMENT, options.getInsertChunkSize(), crawlMetrics));
+        }
+        addRowWriters(options, rowWriters, crawlMetrics);
+        FoodRowWriter rowWriter = validating(options, MultiRowWriter.of(rowWriters));
+        boolean completed;
+        try (CrawlMetrics metrics = crawlMetrics;
+             FoodRowWriter writer = rowWriter) {
+            completed = crawl(options, shard, deltaSQLWriter, writer, metrics);
+            if(completed) {
+                writer.complete();
+                deleteJournal(options);
+            }
+        }
+        if(!completed) {
+            //the outputs were closed without completing them, a shell or scheduler must not take them for a finished crawl
+            LOGGER.error("Crawl did not complete, the output" + (outputPath != null ? " " + outputPath.toAbsolutePath() : "") + " is incomplete");
+            System.exit(1);
+        }
+        if(shard != null) {
+            LOGGER.info("Partial output of shard " + shard + " saved to " + outputPath.toAbsolutePath());
+        } else if(outputPath != null) {
+            LOGGER.info("Generated SQL saved to " + outputPath.toAbsolutePath());
         }
-        LOGGER.info("Fetched " + foodURLs.size() + " food URLs.");
-        return foodURLs;
     }
 
-    private static String crawlFoodURLs(List<URL> foodURLs) throws IOException {
-        LOGGER.info("Start crawling food URLs");
-        StringBuilder insertStatement = new StringBuilder();
-        insertStatement.append("INSERT INTO food(");
-        //column list
-        boolean first = true;
-        for (BLSNutrient blsNutrient : BLSNutrient.values()) {
-            if(first) {
-                insertStatement.append(blsNutrient.getTableColumnName());
-                first = false;
+    /**
+     * Crawls the foods, or only those of <code>shard</code>, and hands them to <code>writer</code> without completing
+     * it.
+     *
+     * @param deltaSQLWriter writer of a delta crawl, which makes the food page requests conditional, or
+     *                       <code>null</code>
+     * @return whether all foods were crawled successfully
+     */
+    static boolean crawl(CrawlerOptions options, Shard shard, DeltaSQLWriter deltaSQLWriter, FoodRowWriter writer, CrawlMetrics metrics) throws IOException {
+        PageCache pageCache = (options.getCacheDir() != null ? new PageCache(Paths.get(options.getCacheDir())) : null);
+        Path journalPath = (options.getJournal() != null ? Paths.get(options.getJournal()) : null);
+        //one more connection than concurrent page requests, the search results are streamed while pages are crawled
+        try (CrawlerHttpClient client = (options.isOffline() ? null : new CrawlerHttpClient(getMaxConcurrentRequests(options) + 1, options.getConnectTimeout(), options.getReadTimeout(), metrics));
+             CrawlJournal journal = (journalPath != null ? CrawlJournal.open(journalPath, options.getJournalBatchSize()) : null)) {
+            FoodURLSource foodURLs;
+            CrawlEngine crawlEngine;
+            FoodPageProcessor processor;
+            if(options.isOffline()) {
+                List<URL> cachedFoodURLs = pageCache.getFoodURLs();
+                LOGGER.info("Re-parsing " + cachedFoodURLs.size() + " cached food pages");
+                foodURLs = toFoodURLSource(cachedFoodURLs);
+                crawlEngine = new OfflineCrawlEngine(pageCache, metrics);
+                processor = createFoodPageProcessor(null, deltaSQLWriter, options.getParser(), metrics);
             } else {
-                insertStatement.append(", ").append(blsNutrient.getTableColumnName());
+                String requestURL = options.getBaseURL() + SEARCH_PATH;
+                foodURLs = consumer -> streamFoodURLs(client, requestURL, consumer);
+                crawlEngine = new RetryingCrawlEngine(createCrawlEngine(options, client, metrics), options.getMaxAttempts(), options.getRetryDelay(), metrics);
+                processor = createFoodPageProcessor(pageCache, deltaSQLWriter, options.getParser(), metrics);
+            }
+            if(shard != null) {
+                LOGGER.info("Crawling shard " + shard);
+                foodURLs = shard.filter(foodURLs);
             }
+            //fetches in flight, the parse queue and the queue and reorder buffer of the writer
+            int maxQueuedFoods = getMaxConcurrentRequests(options) + 2 * options.getQueueCapacity();
+            return crawlFoodURLs(foodURLs, crawlEngine, processor, writer, journal, options.isOrderedByBLSKey(), maxQueuedFoods, metrics);
         }
-        insertStatement.append(")\n VALUES ");
+    }
+
+    /**
+     * Deletes the journal of a crawl whose output is complete, so the next crawl with the same
+     * <code>--journal</code> starts from scratch instead of replaying the rows of this one.
+     */
+    static void deleteJournal(CrawlerOptions options) throws IOException {
+        if(options.getJournal() != null && Files.deleteIfExists(Paths.get(options.getJournal()))) {
+            LOGGER.info("Crawl complete, deleted journal " + options.getJournal());
+        }
+    }
 
-        //build tasks list
-        List<Callable<String>> tasks = new ArrayList<>();
-        for (final URL foodURL : foodURLs) {
-            Callable<String> c = () -> crawlFoodURL(foodURL);
-            tasks.add(c);
+    /**
+     * Adds the writers of the outputs besides the SQL file.
+     */
+    private static void addRowWriters(CrawlerOptions options, List<FoodRowWriter> rowWriters, CrawlMetrics metrics) throws IOException {
+        if(options.getJDBCURL() != null) {
+            rowWriters.add(new JDBCRowWriter(options.getJDBCURL(), TABLE_DEFINITION, options.getJDBCBatchSize(), metrics));
         }
+        if(options.getColumnarSnapshot() != null) {
+            rowWriters.add(new ColumnarSnapshotWriter(Paths.get(options.getColumnarSnapshot())));
+        }
+        if(options.getExport() != null) {
+            rowWriters.add(new DelimitedFileWriter(Paths.get(options.getExport()), options.isCompressed(), options.getExportFormat(), metrics));
+        }
+    }
 
-        //execute
-        ExecutorService executorService = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    /**
+     * @return <code>writer</code> behind a {@link ValidatingRowWriter} if a validation report was requested
+     */
+    private static FoodRowWriter validating(CrawlerOptions options, FoodRowWriter writer) {
+        return (options.getValidationReport() != null ? new ValidatingRowWriter(writer, Paths.get(options.getValidationReport())) : writer);
+    }
+
+    /**
+     * Writes the foods of all shards of a sharded crawl to the outputs, like a crawl of all foods would have.
+     */
+    private static void mergeShards(CrawlerOptions options, Path outputPath) throws IOException {
+        SortedMap<String, FoodRecord> records = ShardMerger.read(options.getMergeShards().stream().map(Paths::get).collect(Collectors.toList()));
+        CrawlMetrics metrics = new CrawlMetrics();
+        List<FoodRowWriter> rowWriters = new ArrayList<>();
+        if(outputPath != null) {
+            rowWriters.add(new SQLDumpWriter(outputPath, options.isCompressed(), CREATE_TABLE_STATEMENT, options.getInsertChunkSize(), metrics));
+        }
+        addRowWriters(options, rowWriters, metrics);
+        try (FoodRowWriter writer = validating(options, MultiRowWriter.of(rowWriters))) {
+            for (Map.Entry<String, FoodRecord> entry : records.entrySet()) {
+                writer.writeRow(entry.getKey(), entry.getValue());
+            }
+            writer.complete();
+        }
+        if(outputPath != null) {
+            LOGGER.info("Generated SQL saved to " + outputPath.toAbsolutePath());
+        }
+    }
+
+    private static void streamFoodURLs(CrawlerHttpClient httpClient, String requestURL, FoodURLSource.Consumer consumer) throws IOException, InterruptedException {
+        int count = FoodIndexReader.streamFoodURLs(httpClient, requestURL, consumer);
+        LOGGER.info("Fetched " + count + " food URLs.");
+    }
+
+    private static FoodURLSource toFoodURLSource(List<URL> foodURLs) {
+        return consumer -> {
+            for (URL foodURL : foodURLs) {
+                consumer.accept(foodURL);
+            }
+        };
+    }
+
+    /**
+     * Crawls the food URLs in a pipeline of stages: the crawl engine fetches and parses the pages, this thread writes
+     * the rows. A food URL is only handed to the engine while fewer than <code>maxQueuedFoods</code> foods are in the
+     * pipeline, so a slow stage holds back the stages before it and memory does not grow with the number of foods.
+     *
+     * @return whether all food URLs were crawled successfully
+     */
+    private static boolean crawlFoodURLs(FoodURLSource foodURLs, CrawlEngine crawlEngine, FoodPageProcessor processor, FoodRowWriter rowWriter, CrawlJournal journal, boolean orderedByBLSKey, int maxQueuedFoods, CrawlMetrics metrics) throws IOException {
+        LOGGER.info("Start crawling food URLs");
         ScheduledExecutorService scheduledExecutorService = Executors.newScheduledThreadPool(1);
+        ExecutorService feedExecutorService = Executors.newSingleThreadExecutor();
+        boolean completed = false;
+        int failedCount = 0;
         try {
+            if(orderedByBLSKey) {
+                //sorting needs the complete list before the first page can be crawled
+                List<URL> sortedFoodURLs = new ArrayList<>(15000); //BLS contains 14.814 foods (2017-05-12)
+                foodURLs.forEach(sortedFoodURLs::add);
+                sortedFoodURLs.sort(Comparator.comparing(BLSCrawler::getBLSKey));
+                foodURLs = toFoodURLSource(sortedFoodURLs);
+            }
+
             LOGGER.info("Start crawling tasks");
             LocalDateTime start = LocalDateTime.now();
-            List<Future<String>> results = new LinkedList<>();
-            for(Callable<String> task : tasks) {
-                results.add(executorService.submit(task));
-            }
-            //print progress during crawling
+            //results are handed over in completion order, the ordered mode buffers them until all predecessors are written
+            BlockingQueue<Future<CrawledRow>> completionQueue = new LinkedBlockingQueue<>();
+            metrics.setCompletionQueueDepthGauge(completionQueue::size);
+            //the completion queue itself is unbounded, engines add to it from I/O threads that must not block
+            Semaphore queuedFoods = new Semaphore(maxQueuedFoods);
+            Map<String, FoodRecord> journaledRows = (journal != null ? journal.getRows() : Collections.emptyMap());
+            //crawling starts while food URLs are still being fetched, the end of input is marked by a special row
+            final FoodURLSource source = foodURLs;
+            CompletableFuture<CrawledRow> feeding = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return feedFoodURLs(source, crawlEngine, processor, journaledRows, queuedFoods, completionQueue::add);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new CompletionException(e);
+                }
+            }, feedExecutorService);
+            feeding.whenComplete((endOfInput, throwable) -> completionQueue.add(feeding));
+            //print progress during crawling, all figures are read from the metrics
             scheduledExecutorService.scheduleWithFixedDelay(() -> {
                 if(!Thread.currentThread().isInterrupted()) {
-                    String remainingTime = "calculating...";
-                    int processed = tasks.size() - results.size();
-                    if (processed > 0) {
-                        Duration elapsedTime = Duration.between(start, LocalDateTime.now());
-                        Duration estimatedRemainingTime = elapsedTime.dividedBy(processed).multipliedBy(results.size());
-                        remainingTime = prettyPrintDuration(estimatedRemainingTime);
-                    }
-                    LOGGER.info("Progress: " + processed / (foodURLs.size() / 100) + "%, remaining time: " + remainingTime);
+                    logProgress(metrics, start);
                 }
             }, 0, 3, TimeUnit.SECONDS);
-            first = true;
-            while(!results.isEmpty()) {
-                Iterator<Future<String>> it = results.iterator();
-                while(it.hasNext()) {
-                    Future<String> future = it.next();
-                    try {
-                        String result = future.get(1, TimeUnit.SECONDS);
-                        if (!first) {
-                            insertStatement.append(",\n ");
-                        }
-                        insertStatement.append(result);
-                        first = false;
-                        it.remove();
-                    } catch (TimeoutException e) {
-                        //swallow
+            Map<Integer, CrawledRow> pendingRows = new HashMap<>();
+            int nextIndex = 0;
+            int processedCount = 0;
+            int total = -1;
+            long totalHandOverNanos = 0;
+            long maxHandOverNanos = 0;
+            while(total < 0 || processedCount < total) {
+                CrawledRow row = completionQueue.take().get();
+                if(row.isEndOfInput()) {
+                    total = row.index;
+                    metrics.setTotalFoods(total);
+                    continue;
+                }
+                processedCount++;
+                metrics.foodProcessed();
+                if(row.isFailed()) {
+                    failedCount++;
+                    metrics.foodFailed();
+                    LOGGER.error("Giving up on " + row.foodURL + ": " + row.failure.getMessage());
+                }
+                if(journal != null && !row.journaled && row.record != null) {
+                    journal.append(getBLSKey(row.foodURL), row.record);
+                }
+                if(orderedByBLSKey) {
+                    pendingRows.put(row.index, row);
+                    //rows waiting for their predecessors keep their permits, so the reorder buffer is bounded as well;
+                    //the next row to write already holds one, it cannot be starved
+                    while((row = pendingRows.remove(nextIndex)) != null) {
+                        long handOverNanos = writeRow(rowWriter, row, metrics);
+                        queuedFoods.release();
+                        totalHandOverNanos += handOverNanos;
+                        maxHandOverNanos = Math.max(maxHandOverNanos, handOverNanos);
+                        nextIndex++;
                     }
+                    metrics.setReorderBufferDepth(pendingRows.size());
+                } else {
+                    long handOverNanos = writeRow(rowWriter, row, metrics);
+                    queuedFoods.release();
+                    totalHandOverNanos += handOverNanos;
+                    maxHandOverNanos = Math.max(maxHandOverNanos, handOverNanos);
                 }
             }
+            if(failedCount > 0) {
+                LOGGER.error(failedCount + " foods could not be crawled, the output is incomplete. Rerun with the same --journal to crawl only them");
+            } else {
+                completed = true;
+            }
             LOGGER.info("Completed crawling in " + prettyPrintDuration(Duration.between(start, LocalDateTime.now())));
+            if(total > 0) {
+                LOGGER.info("Latency from task completion to written row: average " + TimeUnit.NANOSECONDS.toMicros(totalHandOverNanos / total) + " µs, max " + TimeUnit.NANOSECONDS.toMicros(maxHandOverNanos) + " µs");
+            }
         } catch (InterruptedException | ExecutionException e) {
-            e.printStackTrace();
+            LOGGER.error("Crawling failed", e);
         } finally {
+            feedExecutorService.shutdownNow();
             scheduledExecutorService.shutdownNow();
-            executorService.shutdownNow();
+            crawlEngine.close();
         }
-        insertStatement.append(";");
         LOGGER.info("Finished crawling food URLs.");
-        return insertStatement.toString();
+        return completed;
+    }
+
+    private static void logProgress(CrawlMetrics metrics, LocalDateTime start) {
+        int processed = metrics.getProcessedFoods();
+        double progress = metrics.getProgress();
+        String throughput = ", " + metrics.getRequestsInFlight() + " requests in flight (limit " + metrics.getConcurrencyLimit() + "), " + metrics.getParseQueueDepth() + " pages and " + metrics.getCompletionQueueDepth() + " rows queued";
+        if(Double.isNaN(progress)) {
+            LOGGER.info("Progress: " + processed + " foods, still fetching food URLs" + throughput);
+            return;
+        }
+        String remainingTime = "calculating...";
+        if(processed > 0) {
+            Duration elapsedTime = Duration.between(start, LocalDateTime.now());
+            Duration estimatedRemainingTime = elapsedTime.dividedBy(processed).multipliedBy(Math.max(0, metrics.getTotalFoods() - processed));
+            remainingTime = prettyPrintDuration(estimatedRemainingTime);
+        }
+        LOGGER.info("Progress: " + (int) (progress * 100) + "%, remaining time: " + remainingTime + throughput);
+    }
+
+    /**
+     * Submits every food URL to the crawl engine as soon as the source provides it and a permit of
+     * <code>queuedFoods</code> is available. The permit is released when the row is written.
+     *
+     * @return end of input marker holding the number of food URLs
+     */
+    private static CrawledRow feedFoodURLs(FoodURLSource foodURLs, CrawlEngine crawlEngine, FoodPageProcessor processor, Map<String, FoodRecord> journaledRows, Semaphore queuedFoods, RowSink rowSink) throws IOException, InterruptedException {
+        int[] counts = new int[2]; //food URLs, journaled foods
+        foodURLs.forEach(foodURL -> {
+            queuedFoods.acquire();
+            int index = counts[0]++;
+            FoodRecord journaledRow = journaledRows.get(getBLSKey(foodURL));
+            if(journaledRow != null) {
+                //skip foods crawled by a previous run, their rows are taken from the journal
+                counts[1]++;
+                rowSink.accept(CompletableFuture.completedFuture(CrawledRow.fromJournal(index, foodURL, journaledRow)));
+            } else {
+                crawlEngine.submit(index, foodURL, processor, rowSink);
+            }
+        });
+        if(counts[1] > 0) {
+            LOGGER.info("Resumed crawl, " + counts[1] + " foods already crawled, " + (counts[0] - counts[1]) + " remaining");
+        }
+        return CrawledRow.endOfInput(counts[0]);
+    }
+
+    private static CrawlEngine createCrawlEngine(CrawlerOptions options, CrawlerHttpClient httpClient, CrawlMetrics metrics) {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(getMaxConcurrentRequests(options), options.getLatencyTarget());
+        metrics.setConcurrencyLimitGauge(limiter::getLimit);
+        ParseStage parseStage = new ParseStage(options.getQueueCapacity());
+        metrics.setParseQueueDepthGauge(parseStage::getQueueDepth);
+        CrawlEngine crawlEngine;
+        switch (options.getEngine()) {
+            case "threads":
+                LOGGER.info("Using " + options.getFetchThreads() + " fetch threads");
+                crawlEngine = new ThreadPoolCrawlEngine(options.getFetchThreads(), httpClient, limiter, parseStage);
+                break;
+            case "async":
+                LOGGER.info("Using asynchronous HTTP client with at most " + options.getMaxInFlight() + " requests in flight");
+                crawlEngine = new AsyncCrawlEngine(httpClient, limiter, parseStage);
+                break;
+            case "virtual":
+                LOGGER.info("Using virtual threads with at most " + options.getMaxInFlight() + " simultaneous connections");
+                crawlEngine = createVirtualThreadCrawlEngine(httpClient, limiter, parseStage);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown engine \"" + options.getEngine() + "\". " + CrawlerOptions.USAGE);
+        }
+        if(options.isEnglish()) {
+            LOGGER.info("Crawling English food names");
+            crawlEngine = new BilingualCrawlEngine(crawlEngine, httpClient, limiter);
+        }
+        return crawlEngine;
+    }
+
+    private static int getMaxConcurrentRequests(CrawlerOptions options) {
+        return (options.getEngine().equals("threads") ? options.getFetchThreads() : options.getMaxInFlight());
+    }
+
+    /**
+     * The virtual thread engine is only compiled with the <code>java21</code> profile, into the Java 21 part of the
+     * multi-release jar, so it has to be looked up at runtime to keep the platform thread engines working on older JVMs.
+     */
+    private static CrawlEngine createVirtualThreadCrawlEngine(CrawlerHttpClient httpClient, AdaptiveConcurrencyLimiter limiter, ParseStage parseStage) {
+        try {
+            Constructor<?> constructor = Class.forName(BLSCrawler.class.getPackage().getName() + ".VirtualThreadCrawlEngine").getDeclaredConstructor(CrawlerHttpClient.class, AdaptiveConcurrencyLimiter.class, ParseStage.class);
+            return (CrawlEngine) constructor.newInstance(httpClient, limiter, parseStage);
+        } catch (ClassNotFoundException | NoSuchMethodException | InstantiationException | IllegalAccessException e) {
+            throw new IllegalStateException("Virtual thread engine is not available, run the jar built with the java21 profile on Java 21 or newer", e);
+        } catch (InvocationTargetException e) {
+            if(e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Cannot create virtual thread engine", e.getCause());
+        }
     }
 
-    private static String crawlFoodURL(URL foodURL) throws IOException {
-        EnumMap<BLSNutrient, String> food = new EnumMap<>(BLSNutrient.class);
-        String blsKey = foodURL.toString().replace("http://www.ernaehrung.de/lebensmittel/de/", "").substring(0, 7);
-        food.put(BLSNutrient.BLS_SCHLUESSEL, blsKey);
-        Document resultsDoc = Jsoup.connect(foodURL.toString()).get();
-        String foodName = resultsDoc.getElementById("wrapper").getElementsByTag("h1").text();
-        food.put(BLSNutrient.TEXT, foodName);
-        List<Elements> tables = resultsDoc.getElementById("wrapper").getElementsByClass("table table-condensed table-striped table-bordered").subList(0, 7).stream().map(e -> e.getElementsByTag("tr")).collect(Collectors.toList());
+    /**
+     * @return nanoseconds between completion of the crawling task and the row being handed to the writer
+     */
+    private static long writeRow(FoodRowWriter rowWriter, CrawledRow row, CrawlMetrics metrics) throws IOException {
+        long handOverNanos = System.nanoTime() - row.completedNanos;
+        if(!row.isFailed()) {
+            rowWriter.writeRow(getBLSKey(row.foodURL), row.record);
+            metrics.rowEmitted();
+        }
+        return handOverNanos;
+    }
+
+    /**
+     * @return BLS key of a food page URL like <code>&lt;base URL&gt;de/B100000/Brot.php</code>, independent of the base
+     * URL
+     */
+    static String getBLSKey(URL foodURL) {
+        String path = foodURL.getPath();
+        int keyIndex = path.lastIndexOf("/" + FOOD_PATH);
+        if(keyIndex < 0 || path.length() < keyIndex + FOOD_PATH.length() + 8) {
+            throw new IllegalArgumentException("Not a food page URL: " + foodURL);
+        }
+        keyIndex += FOOD_PATH.length() + 1;
+        return path.substring(keyIndex, keyIndex + 7);
+    }
+
+    /**
+     * @return URL of the English variant of a food page, like <code>&lt;base URL&gt;en/B100000/Brot.php</code>; the
+     * site finds the page by the BLS key, whatever the last path segment is
+     */
+    static URL getEnglishFoodURL(URL foodURL) {
+        String url = foodURL.toString();
+        int pathIndex = url.lastIndexOf("/" + FOOD_PATH);
+        if(pathIndex < 0) {
+            throw new IllegalArgumentException("Not a food page URL: " + foodURL);
+        }
+        try {
+            return new URL(url.substring(0, pathIndex + 1) + ENGLISH_FOOD_PATH + url.substring(pathIndex + 1 + FOOD_PATH.length()));
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("Not a food page URL: " + foodURL, e);
+        }
+    }
+
+    /**
+     * Fetches a food page with a blocking request once the limiter allows it.
+     *
+     * @throws FetchException if the request failed
+     */
+    static FetchedPage fetchFoodPage(CrawlerHttpClient httpClient, URL foodURL, Map<String, String> headers, AdaptiveConcurrencyLimiter limiter) throws IOException, InterruptedException {
+        long startNanos = limiter.acquire();
+        boolean overloaded = false;
+        try {
+            return httpClient.fetchPageAndWait(foodURL, headers);
+        } catch (FetchException e) {
+            overloaded = e.isRetryable();
+            throw e;
+        } finally {
+            limiter.release(startNanos, overloaded);
+        }
+    }
+
+    private static FoodPageProcessor createFoodPageProcessor(PageCache pageCache, DeltaSQLWriter deltaSQLWriter, String parser, CrawlMetrics metrics) {
+        boolean fastParser = parser.equals("fast");
+        return new FoodPageProcessor() {
+            @Override
+            public FoodRecord process(URL foodURL, FetchedPage page) throws IOException {
+                String blsKey = getBLSKey(foodURL);
+                if(page.isNotModified()) {
+                    return null;
+                }
+                if(pageCache != null) {
+                    pageCache.put(blsKey, foodURL, page.body);
+                }
+                if(deltaSQLWriter != null) {
+                    deltaSQLWriter.recordValidators(blsKey, page.eTag, page.lastModified);
+                }
+                FoodValues food = new FoodValues(blsKey);
+                long startNanos = System.nanoTime();
+                if(fastParser) {
+                    //the fast parser maps every nutrient while scanning, so there is no separate map stage
+                    FoodPageExtractor.extract(page.body, food);
+                    metrics.record(CrawlMetrics.Stage.PARSE, startNanos);
+                } else {
+                    Document resultsDoc = Jsoup.parse(page.body, foodURL.toString());
+                    long parsedNanos = metrics.record(CrawlMetrics.Stage.PARSE, startNanos);
+                    readNutrientTables(resultsDoc, food);
+                    metrics.record(CrawlMetrics.Stage.MAP, parsedNanos);
+                }
+                metrics.addUnmappedNutrients(food.unmappedNutrients);
+                return food.record;
+            }
+
+            @Override
+            public Map<String, String> getRequestHeaders(URL foodURL) {
+                return (deltaSQLWriter != null ? deltaSQLWriter.getConditionalRequestHeaders(getBLSKey(foodURL)) : Collections.emptyMap());
+            }
+        };
+    }
+
+    static FoodRecord parseFoodPage(String blsKey, Document resultsDoc) {
+        FoodValues food = new FoodValues(blsKey);
+        readNutrientTables(resultsDoc, food);
+        return food.record;
+    }
+
+    private static void readNutrientTables(Document resultsDoc, FoodValues food) {
+        food.foodName(resultsDoc.getElementById("wrapper").getElementsByTag("h1").text());
+        List<Elements> tables = resultsDoc.getElementById("wrapper").getElementsByClass(FoodPageExtractor.NUTRIENT_TABLE_CLASS).subList(0, FoodPageExtractor.NUTRIENT_TABLE_COUNT).stream().map(e -> e.getElementsByTag("tr")).collect(Collectors.toList());
         //parse data from tables
         for(Elements table : tables) {
             for (Element tableRow : table) {
                 Elements tableData = tableRow.getElementsByTag("td");
                 if (!tableData.isEmpty()) { //to filter out table rows which only contain th-elements
-                    String websiteNutrientLongName = tableData.get(0).text();
-                    String nutrientAmountStr = tableData.get(1).text().replace(",", ".");
-                    String nutrientUnit = (tableData.size() >= 3 ? tableData.get(2).text() : null);
-                    if (!WEBSITE_NUTRIENT_LONG_NAME_TO_BLS_NUTRIENT_MAP.containsKey(websiteNutrientLongName)) {
-                        if(!nutrientAmountStr.isEmpty()) {
-                            LOGGER.warn("Unmapped nutrient in " + foodName + ": \"" + websiteNutrientLongName + "\" " + nutrientAmountStr + (nutrientUnit != null && !nutrientUnit.isEmpty() ? " " + nutrientUnit : ""));
-                        } else {
-                            LOGGER.debug("Unmapped nutrient in " + foodName + ": \"" + websiteNutrientLongName + "\" " + nutrientAmountStr + (nutrientUnit != null && !nutrientUnit.isEmpty() ? " " + nutrientUnit : ""));
-                        }
-                    } else if (!nutrientAmountStr.isEmpty()) {
-                        BigDecimal containedAmount = new BigDecimal(nutrientAmountStr);
-                        if (nutrientUnit != null) {
-                            switch (nutrientUnit) {
-                                case "g":
-                                    containedAmount = containedAmount.multiply(new BigDecimal(1000));
-                                    break;
-                                case "mg":
-                                    //do nothing
-                                    break;
-                                case "µg":
-                                    containedAmount = containedAmount.divide(new BigDecimal(1000), RoundingMode.HALF_UP);
-                                    break;
-                            }
-                        }
-                        food.put(WEBSITE_NUTRIENT_LONG_NAME_TO_BLS_NUTRIENT_MAP.get(websiteNutrientLongName), Double.toString(containedAmount.doubleValue()));
-                    }
+                    food.nutrient(tableData.get(0).text(), tableData.get(1).text(), (tableData.size() >= 3 ? tableData.get(2).text() : null));
                 }
             }
         }
+    }
 
-        //transform do SQL value list
-        StringBuilder valueList = new StringBuilder().append("(");
-        boolean first = true;
-        for (BLSNutrient blsNutrient : BLSNutrient.values()) {
-            if(!first) {
-                valueList.append(", ");
-            }
-            first = false;
-            if(blsNutrient.equals(BLSNutrient.BLS_SCHLUESSEL) || blsNutrient.equals(BLSNutrient.TEXT) || blsNutrient.equals(BLSNutrient.TEXT_ENGLISCH))
-            {
-                if(food.containsKey(blsNutrient)) {
-                    valueList.append("'").append(food.get(blsNutrient)).append("'");
+    /**
+     * Parses a food page with the single-pass {@link FoodPageExtractor} instead of a Jsoup DOM, giving the same value
+     * list as {@link #parseFoodPage(String, Document)}.
+     */
+    static FoodRecord parseFoodPage(String blsKey, CharSequence page) throws IOException {
+        FoodValues food = new FoodValues(blsKey);
+        FoodPageExtractor.extract(page, food);
+        return food.record;
+    }
+
+    /**
+     * Maps the nutrients of a food page to BLS nutrients, shared by both parsers.
+     */
+    static class FoodValues implements FoodPageExtractor.Handler {
+        final FoodRecord record;
+        int unmappedNutrients = 0;
+
+        FoodValues(String blsKey) {
+            this.record = new FoodRecord(blsKey);
+        }
+
+        @Override
+        public void foodName(String foodName) {
+            record.setFoodName(foodName);
+        }
+
+        @Override
+        public void nutrient(String websiteNutrientLongName, String nutrientAmount, String nutrientUnit) {
+            BLSNutrient blsNutrient = WEBSITE_NUTRIENT_LONG_NAME_TO_BLS_NUTRIENT_MAP.get(websiteNutrientLongName);
+            if (blsNutrient == null) {
+                unmappedNutrients++;
+                String nutrientAmountStr = nutrientAmount.replace(",", ".");
+                if(!nutrientAmountStr.isEmpty()) {
+                    LOGGER.warn("Unmapped nutrient in " + record.getFoodName() + ": \"" + websiteNutrientLongName + "\" " + nutrientAmountStr + (nutrientUnit != null && !nutrientUnit.isEmpty() ? " " + nutrientUnit : ""));
                 } else {
-                    valueList.append("NULL");
+                    LOGGER.debug("Unmapped nutrient in " + record.getFoodName() + ": \"" + websiteNutrientLongName + "\" " + nutrientAmountStr + (nutrientUnit != null && !nutrientUnit.isEmpty() ? " " + nutrientUnit : ""));
                 }
-            } else {
-                valueList.append(food.getOrDefault(blsNutrient, "NULL"));
+            } else if (!nutrientAmount.isEmpty()) {
+                //amounts are stored in mg, unknown units are taken as they are
+                Integer unitExponent = (nutrientUnit != null ? UNIT_TO_MG_EXPONENT_MAP.get(nutrientUnit) : null);
+                record.set(blsNutrient, FoodRecord.parseAmount(nutrientAmount, unitExponent != null ? unitExponent : 0));
             }
         }
-        valueList.append(")");
-        return valueList.toString();
     }
 
     private static String prettyPrintDuration(Duration duration) {
@@ -14,8 +14,8 @@ public enum BLSNutrient {
     //Zusammensetzung
     ENERGIE_KILOKALORIEN("Energie (Kilokalorien)", "GCAL", "kcal/100 g"),
     ENERGIE_KILOJOULE("Energie (Kilojoule)", "GJ", "kJ/100 g"),
-    ENERGIE_INKL_BALLASTSTOFFE_KILOKALORIEN("Energie inkl. Energie aus Ballaststoffen (Kilokalorien)", "GCALZB", "kcal/100 g"), //TODO no usage
-    ENERGIE_INKL_BALLASTSTOFFE_KILOJOULE("Energie inkl. Energie aus Ballaststoffen (Kilojoule)", "GJZB", "kJ/100 g"), //TODO no usage
+    ENERGIE_INKL_BALLASTSTOFFE_KILOKALORIEN("Energie inkl. Energie aus Ballaststoffen (Kilokalorien)", "GCALZB", "kcal/100 g"), //derived by FoodValidator
+    ENERGIE_INKL_BALLASTSTOFFE_KILOJOULE("Energie inkl. Energie aus Ballaststoffen (Kilojoule)", "GJZB", "kJ/100 g"), //derived by FoodValidator
     WASSER("Wasser", "ZW"),
     EIWEISS_PROTEIN("Eiweiß (Protein)", "ZE"),
     FETT("Fett", "ZF"),
@@ -112,7 +112,7 @@ public enum BLSNutrient {
     SERIN("Serin", "ESER"),
     NICHTESSENTIELLE_AMINOSAEUREN("Nichtessentielle Aminosäuren", "ENA"),
     HARNSAEURE("Harnsäure", "EH"),
-    PURIN("Purin", "EP"), //TODO no usage
+    PURIN("Purin", "EP"), //derived by FoodValidator
 
     //Fettzusammensetzung (Fettsäuren)
     BUTANSAEURE_BUTTERSAEURE("Butansäure/Buttersäure", "F40"),
@@ -157,8 +157,8 @@ public enum BLSNutrient {
     KURZKETTIGE_FETTSAEUREN("Kurzkettige Fettsäuren", "FK"),
     MITTELKETTIGE_FETTSAEUREN("Mittelkettige Fettsäuren", "FM"),
     LANGKETTIGE_FETTSAEUREN("Langkettige Fettsäuren", "FL"),
-    OMEGA_3_FETTSAEUREN("Omega-3-Fettsäuren", "FO3"), //TODO no usage
-    OMEGA_6_FETTSAEUREN("Omega-6-Fettsäuren", "FO6"), //TODO no usage
+    OMEGA_3_FETTSAEUREN("Omega-3-Fettsäuren", "FO3"), //derived by FoodValidator
+    OMEGA_6_FETTSAEUREN("Omega-6-Fettsäuren", "FO6"), //derived by FoodValidator
     GLYCERIN_UND_LIPOIDE("Glycerin und Lipoide", "FG"),
     CHOLESTERIN("Cholesterin", "FC"),
 
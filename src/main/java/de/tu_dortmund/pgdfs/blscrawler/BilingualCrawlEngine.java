@@ -0,0 +1,114 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Crawls the English variant of every food page along with the German one to fill the English food name
+ * (<code>STE</code>). The English page is requested by the non-blocking {@link CrawlerHttpClient} when the German one
+ * is submitted, so both requests are in flight at the same time on the pooled keep-alive connections, and the English
+ * name is joined into the row of the food before it is handed on. Only the <code>h1</code> of the English page is
+ * read, the nutrient values are taken from the German page.
+ * <p>
+ * A missing English page leaves the English name empty. Any other failure of the English request fails the food, so
+ * a {@link RetryingCrawlEngine} around this engine retries both pages.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+class BilingualCrawlEngine implements CrawlEngine {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BilingualCrawlEngine.class);
+    private static final int NOT_FOUND = 404;
+
+    private final CrawlEngine crawlEngine;
+    private final CrawlerHttpClient httpClient;
+    private final AdaptiveConcurrencyLimiter limiter;
+
+    BilingualCrawlEngine(CrawlEngine crawlEngine, CrawlerHttpClient httpClient, AdaptiveConcurrencyLimiter limiter) {
+        this.crawlEngine = crawlEngine;
+        this.httpClient = httpClient;
+        this.limiter = limiter;
+    }
+
+    /**
+     * Blocks while the limiter allows no further requests, then submits the German page to the wrapped engine.
+     */
+    @Override
+    public void submit(int index, URL foodURL, FoodPageProcessor processor, RowSink rowSink) throws InterruptedException {
+        URL englishFoodURL = BLSCrawler.getEnglishFoodURL(foodURL);
+        long startNanos = limiter.acquire();
+        CompletableFuture<String> englishFoodName;
+        try {
+            englishFoodName = httpClient.fetchPage(englishFoodURL, Collections.emptyMap())
+                    .whenComplete((page, throwable) -> limiter.release(startNanos, throwable instanceof FetchException && ((FetchException) throwable).isRetryable()))
+                    .handle((page, throwable) -> {
+                        Throwable cause = (throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable);
+                        if(cause instanceof FetchException && ((FetchException) cause).statusCode == NOT_FOUND) {
+                            LOGGER.warn("No English page " + englishFoodURL);
+                            return null;
+                        } else if(cause != null) {
+                            throw new CompletionException(cause);
+                        }
+                        try {
+                            //stops before the nutrient tables, cheap enough for the I/O thread
+                            return FoodPageExtractor.extractFoodName(page.body);
+                        } catch (IOException e) {
+                            throw new CompletionException(e);
+                        }
+                    });
+        } catch (RuntimeException e) {
+            limiter.release(startNanos, false);
+            englishFoodName = new CompletableFuture<>();
+            englishFoodName.completeExceptionally(e);
+        }
+        crawlEngine.submit(index, foodURL, processor, new JoiningSink(englishFoodName, rowSink));
+    }
+
+    @Override
+    public void close() {
+        crawlEngine.close();
+    }
+
+    /**
+     * Receives the row of the German page from the wrapped engine in place of the real sink and passes it on once the
+     * English name is known.
+     */
+    private static class JoiningSink implements RowSink {
+        private final CompletableFuture<String> englishFoodName;
+        private final RowSink rowSink;
+
+        private JoiningSink(CompletableFuture<String> englishFoodName, RowSink rowSink) {
+            this.englishFoodName = englishFoodName;
+            this.rowSink = rowSink;
+        }
+
+        @Override
+        public void accept(Future<CrawledRow> result) {
+            englishFoodName.whenComplete((name, throwable) -> {
+                CrawledRow row;
+                try {
+                    row = result.get();
+                } catch (InterruptedException | ExecutionException e) {
+                    rowSink.accept(result);
+                    return;
+                }
+                if(throwable != null) {
+                    rowSink.accept(CrawlEngine.failed(throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable));
+                    return;
+                }
+                //the German page did not change since the last crawl, its row is kept as a whole
+                if(row.record != null) {
+                    row.record.setEnglishFoodName(name);
+                }
+                rowSink.accept(result);
+            });
+        }
+    }
+}
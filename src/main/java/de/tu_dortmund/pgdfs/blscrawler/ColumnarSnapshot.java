@@ -0,0 +1,270 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read-only view of a columnar snapshot written by {@link ColumnarSnapshotWriter}. The file is memory-mapped and
+ * columns are handed out as buffers over the mapping, so opening a snapshot of all foods takes no more than reading
+ * its header. Rows are sorted by BLS key.
+ * <p>
+ * File layout, all numbers little-endian:
+ * <pre>
+ * header     int magic "BLSC", int version, int row count, int column count
+ * directory  per column: byte type, long section offset, short name length, UTF-8 table column name
+ * sections   aligned to 8 bytes
+ *   DOUBLE      long[(rows + 63) / 64] null bitmap (bit set = NULL), double[rows] values (NaN if NULL)
+ *   DICTIONARY  int entry count, int data length, int[rows] codes (-1 = NULL), int[entries + 1] entry offsets,
+ *               byte[data length] UTF-8 entries
+ * </pre>
+ * Columns are identified by their table column name, so files stay readable when nutrients are added.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+public class ColumnarSnapshot implements Closeable {
+    static final int MAGIC = 'B' | 'L' << 8 | 'S' << 16 | 'C' << 24;
+    static final int VERSION = 1;
+    static final byte TYPE_DOUBLE = 0;
+    static final byte TYPE_DICTIONARY = 1;
+    static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    private static final BLSNutrient[] NUTRIENTS = BLSNutrient.values();
+
+    private final Path path;
+    private final int rowCount;
+    private final LongBuffer[] nullBitmaps = new LongBuffer[NUTRIENTS.length];
+    private final DoubleBuffer[] values = new DoubleBuffer[NUTRIENTS.length];
+    private final Dictionary[] dictionaries = new Dictionary[NUTRIENTS.length];
+
+    private ColumnarSnapshot(Path path, ByteBuffer mapping) throws IOException {
+        this.path = path;
+        mapping.order(BYTE_ORDER);
+        if(mapping.remaining() < 16 || mapping.getInt(0) != MAGIC) {
+            throw new IOException(path + " is not a columnar snapshot");
+        }
+        if(mapping.getInt(4) != VERSION) {
+            throw new IOException("Unsupported version " + mapping.getInt(4) + " of columnar snapshot " + path);
+        }
+        this.rowCount = mapping.getInt(8);
+        int columnCount = mapping.getInt(12);
+        ByteBuffer directory = mapping.duplicate().order(BYTE_ORDER);
+        directory.position(16);
+        for (int i = 0; i < columnCount; i++) {
+            byte type = directory.get();
+            int offset = (int) directory.getLong();
+            byte[] name = new byte[directory.getShort()];
+            directory.get(name);
+            BLSNutrient nutrient;
+            try {
+                nutrient = BLSNutrient.getByTableColumnName(new String(name, StandardCharsets.UTF_8));
+            } catch (IllegalArgumentException e) {
+                continue; //written by a newer version
+            }
+            ByteBuffer section = slice(mapping, offset);
+            if(type == TYPE_DOUBLE) {
+                int bitmapLength = (rowCount + 63) / 64;
+                nullBitmaps[nutrient.ordinal()] = section.asLongBuffer();
+                nullBitmaps[nutrient.ordinal()].limit(bitmapLength);
+                values[nutrient.ordinal()] = slice(section, bitmapLength * 8).asDoubleBuffer();
+                values[nutrient.ordinal()].limit(rowCount);
+            } else if(type == TYPE_DICTIONARY) {
+                dictionaries[nutrient.ordinal()] = new Dictionary(section, rowCount);
+            } else {
+                throw new IOException("Unknown column type " + type + " in columnar snapshot " + path);
+            }
+        }
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset) {
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(offset);
+        return duplicate.slice().order(BYTE_ORDER);
+    }
+
+    /**
+     * Maps a snapshot into memory. The mapping stays valid until the snapshot is garbage collected, even after
+     * {@link #close()}.
+     */
+    public static ColumnarSnapshot open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new ColumnarSnapshot(path, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public boolean hasColumn(BLSNutrient nutrient) {
+        return values[nutrient.ordinal()] != null || dictionaries[nutrient.ordinal()] != null;
+    }
+
+    /**
+     * @return values of a numeric column without copying them, <code>NaN</code> where the value is missing
+     * @throws IllegalArgumentException if the snapshot has no numeric column for the nutrient
+     */
+    public DoubleBuffer getColumn(BLSNutrient nutrient) {
+        DoubleBuffer column = values[nutrient.ordinal()];
+        if(column == null) {
+            throw new IllegalArgumentException("Snapshot " + path + " has no numeric column " + nutrient.getTableColumnName());
+        }
+        return column.asReadOnlyBuffer();
+    }
+
+    /**
+     * @return null bitmap of a numeric column, bit <code>row % 64</code> of element <code>row / 64</code> is set if
+     * the value is missing
+     */
+    public LongBuffer getNullBitmap(BLSNutrient nutrient) {
+        getColumn(nutrient);
+        return nullBitmaps[nutrient.ordinal()].asReadOnlyBuffer();
+    }
+
+    public boolean isNull(BLSNutrient nutrient, int row) {
+        if(dictionaries[nutrient.ordinal()] != null) {
+            return getTextCode(nutrient, row) < 0;
+        }
+        getColumn(nutrient);
+        return (nullBitmaps[nutrient.ordinal()].get(row >> 6) & (1L << row)) != 0;
+    }
+
+    /**
+     * @return value of a numeric column, <code>NaN</code> if it is missing
+     */
+    public double getDouble(BLSNutrient nutrient, int row) {
+        DoubleBuffer column = values[nutrient.ordinal()];
+        if(column == null) {
+            throw new IllegalArgumentException("Snapshot " + path + " has no numeric column " + nutrient.getTableColumnName());
+        }
+        return column.get(row);
+    }
+
+    /**
+     * @return dictionary code of a text column, <code>-1</code> if the text is missing
+     */
+    public int getTextCode(BLSNutrient nutrient, int row) {
+        return getDictionary(nutrient).codes.get(row);
+    }
+
+    public int getDictionarySize(BLSNutrient nutrient) {
+        return getDictionary(nutrient).size;
+    }
+
+    public String getDictionaryEntry(BLSNutrient nutrient, int code) {
+        return getDictionary(nutrient).getEntry(code);
+    }
+
+    /**
+     * @return text of a text column, <code>null</code> if it is missing
+     */
+    public String getText(BLSNutrient nutrient, int row) {
+        int code = getTextCode(nutrient, row);
+        return (code < 0 ? null : getDictionaryEntry(nutrient, code));
+    }
+
+    private Dictionary getDictionary(BLSNutrient nutrient) {
+        Dictionary dictionary = dictionaries[nutrient.ordinal()];
+        if(dictionary == null) {
+            throw new IllegalArgumentException("Snapshot " + path + " has no text column " + nutrient.getTableColumnName());
+        }
+        return dictionary;
+    }
+
+    /**
+     * @return row of the food with the given BLS key, or <code>-1</code> if the snapshot does not contain it
+     */
+    public int indexOf(String blsKey) {
+        int low = 0;
+        int high = rowCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = getText(BLSNutrient.BLS_SCHLUESSEL, middle).compareTo(blsKey);
+            if(comparison < 0) {
+                low = middle + 1;
+            } else if(comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return copy of a row, with the columns present in this snapshot
+     */
+    FoodRecord getRecord(int row) {
+        FoodRecord record = new FoodRecord(getText(BLSNutrient.BLS_SCHLUESSEL, row));
+        if(dictionaries[BLSNutrient.TEXT.ordinal()] != null) {
+            record.setFoodName(getText(BLSNutrient.TEXT, row));
+        }
+        if(dictionaries[BLSNutrient.TEXT_ENGLISCH.ordinal()] != null) {
+            record.setEnglishFoodName(getText(BLSNutrient.TEXT_ENGLISCH, row));
+        }
+        for (BLSNutrient nutrient : NUTRIENTS) {
+            if(values[nutrient.ordinal()] != null && !isNull(nutrient, row)) {
+                record.set(nutrient, getDouble(nutrient, row));
+            }
+        }
+        return record;
+    }
+
+    /**
+     * Drops the buffers of this snapshot. Java 8 cannot unmap a file explicitly, the mapping is released by the
+     * garbage collector.
+     */
+    @Override
+    public void close() {
+        for (int i = 0; i < NUTRIENTS.length; i++) {
+            nullBitmaps[i] = null;
+            values[i] = null;
+            dictionaries[i] = null;
+        }
+    }
+
+    private static class Dictionary {
+        private final int size;
+        private final IntBuffer codes;
+        private final IntBuffer entryOffsets;
+        private final ByteBuffer data;
+        private final String[] entries;
+
+        private Dictionary(ByteBuffer section, int rowCount) {
+            this.size = section.getInt(0);
+            int dataLength = section.getInt(4);
+            this.codes = slice(section, 8).asIntBuffer();
+            codes.limit(rowCount);
+            this.entryOffsets = slice(section, 8 + rowCount * 4).asIntBuffer();
+            entryOffsets.limit(size + 1);
+            this.data = slice(section, 8 + rowCount * 4 + (size + 1) * 4);
+            data.limit(dataLength);
+            this.entries = new String[size];
+        }
+
+        /**
+         * Decodes entries on first use only, most queries never look at the texts.
+         */
+        private String getEntry(int code) {
+            String entry = entries[code];
+            if(entry == null) {
+                int start = entryOffsets.get(code);
+                byte[] bytes = new byte[entryOffsets.get(code + 1) - start];
+                ByteBuffer entryData = data.duplicate();
+                entryData.position(start);
+                entryData.get(bytes);
+                entry = new String(bytes, StandardCharsets.UTF_8);
+                entries[code] = entry;
+            }
+            return entry;
+        }
+    }
+}
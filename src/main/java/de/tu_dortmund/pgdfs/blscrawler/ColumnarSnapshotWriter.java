@@ -0,0 +1,172 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Stores the foods of a crawl as a {@link ColumnarSnapshot}. Columns can only be written once all rows are known, so
+ * rows are collected in memory (about 16 MB for the whole BLS) and written by {@link #complete()}, replacing the
+ * previous snapshot atomically. Foods that did not change since the last crawl are copied from the previous snapshot.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+class ColumnarSnapshotWriter implements FoodRowWriter {
+    private static final BLSNutrient[] NUTRIENTS = BLSNutrient.values();
+
+    private final Path path;
+    private final ColumnarSnapshot previousSnapshot;
+    private final Map<String, FoodRecord> records = new TreeMap<>();
+
+    ColumnarSnapshotWriter(Path path) throws IOException {
+        this.path = path;
+        this.previousSnapshot = (Files.exists(path) ? ColumnarSnapshot.open(path) : null);
+    }
+
+    @Override
+    public void writeRow(String blsKey, FoodRecord record) throws IOException {
+        if(record == null) {
+            int previousRow = (previousSnapshot != null ? previousSnapshot.indexOf(blsKey) : -1);
+            if(previousRow < 0) {
+                throw new IOException("Page of " + blsKey + " reported as not modified, but it is missing in columnar snapshot " + path);
+            }
+            record = previousSnapshot.getRecord(previousRow);
+        }
+        records.put(blsKey, record);
+    }
+
+    @Override
+    public void complete() throws IOException {
+        List<FoodRecord> rows = new ArrayList<>(records.values());
+        List<ByteBuffer> sections = new ArrayList<>(NUTRIENTS.length);
+        for (BLSNutrient nutrient : NUTRIENTS) {
+            sections.add(FoodRecord.isText(nutrient) ? buildDictionarySection(rows, nutrient) : buildDoubleSection(rows, nutrient));
+        }
+        ByteBuffer header = buildHeader(rows.size(), sections);
+
+        if(previousSnapshot != null) {
+            previousSnapshot.close();
+        }
+        Path tempPath = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+        try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, header);
+            for (ByteBuffer section : sections) {
+                writeFully(channel, section);
+            }
+            channel.force(false);
+        }
+        PageCache.moveAtomically(tempPath, path);
+    }
+
+    private static ByteBuffer buildHeader(int rowCount, List<ByteBuffer> sections) {
+        byte[][] names = new byte[NUTRIENTS.length][];
+        int headerLength = 16;
+        for (int i = 0; i < NUTRIENTS.length; i++) {
+            names[i] = NUTRIENTS[i].getTableColumnName().getBytes(StandardCharsets.UTF_8);
+            headerLength += 1 + 8 + 2 + names[i].length;
+        }
+        headerLength = align(headerLength);
+        ByteBuffer header = ByteBuffer.allocate(headerLength).order(ColumnarSnapshot.BYTE_ORDER);
+        header.putInt(ColumnarSnapshot.MAGIC).putInt(ColumnarSnapshot.VERSION).putInt(rowCount).putInt(NUTRIENTS.length);
+        long offset = headerLength;
+        for (int i = 0; i < NUTRIENTS.length; i++) {
+            header.put(FoodRecord.isText(NUTRIENTS[i]) ? ColumnarSnapshot.TYPE_DICTIONARY : ColumnarSnapshot.TYPE_DOUBLE)
+                    .putLong(offset)
+                    .putShort((short) names[i].length)
+                    .put(names[i]);
+            offset += sections.get(i).remaining();
+        }
+        header.position(0);
+        return header;
+    }
+
+    private static ByteBuffer buildDoubleSection(List<FoodRecord> rows, BLSNutrient nutrient) {
+        int bitmapLength = (rows.size() + 63) / 64;
+        ByteBuffer section = ByteBuffer.allocate(bitmapLength * 8 + rows.size() * 8).order(ColumnarSnapshot.BYTE_ORDER);
+        long[] nullBitmap = new long[bitmapLength];
+        for (int row = 0; row < rows.size(); row++) {
+            if(!rows.get(row).has(nutrient)) {
+                nullBitmap[row >> 6] |= 1L << row;
+            }
+        }
+        section.asLongBuffer().put(nullBitmap);
+        section.position(bitmapLength * 8);
+        for (FoodRecord row : rows) {
+            section.putDouble(row.get(nutrient));
+        }
+        section.position(0);
+        return section;
+    }
+
+    private static ByteBuffer buildDictionarySection(List<FoodRecord> rows, BLSNutrient nutrient) {
+        Map<String, Integer> codesByEntry = new HashMap<>();
+        List<byte[]> entries = new ArrayList<>();
+        int[] codes = new int[rows.size()];
+        int dataLength = 0;
+        for (int row = 0; row < rows.size(); row++) {
+            String text = getText(rows.get(row), nutrient);
+            if(text == null) {
+                codes[row] = -1;
+                continue;
+            }
+            Integer code = codesByEntry.get(text);
+            if(code == null) {
+                code = entries.size();
+                codesByEntry.put(text, code);
+                byte[] entry = text.getBytes(StandardCharsets.UTF_8);
+                entries.add(entry);
+                dataLength += entry.length;
+            }
+            codes[row] = code;
+        }
+        ByteBuffer section = ByteBuffer.allocate(align(8 + rows.size() * 4 + (entries.size() + 1) * 4 + dataLength)).order(ColumnarSnapshot.BYTE_ORDER);
+        section.putInt(entries.size()).putInt(dataLength);
+        for (int code : codes) {
+            section.putInt(code);
+        }
+        int entryOffset = 0;
+        for (byte[] entry : entries) {
+            section.putInt(entryOffset);
+            entryOffset += entry.length;
+        }
+        section.putInt(entryOffset);
+        for (byte[] entry : entries) {
+            section.put(entry);
+        }
+        section.position(0);
+        return section;
+    }
+
+    private static String getText(FoodRecord record, BLSNutrient nutrient) {
+        switch (nutrient) {
+            case BLS_SCHLUESSEL:
+                return record.getBLSKey();
+            case TEXT:
+                return record.getFoodName();
+            default:
+                return record.getEnglishFoodName();
+        }
+    }
+
+    private static int align(int length) {
+        return (length + 7) & ~7;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    @Override
+    public void close() {
+        if(previousSnapshot != null) {
+            previousSnapshot.close();
+        }
+    }
+}
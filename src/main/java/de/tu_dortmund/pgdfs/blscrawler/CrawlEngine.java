@@ -0,0 +1,52 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import java.io.Closeable;
+import java.net.URL;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Strategy for fetching and parsing food pages.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+interface CrawlEngine extends Closeable {
+    /**
+     * Starts crawling a single food page and returns without waiting for it, but may block while the engine is
+     * saturated. The page is handed to <code>processor</code> and exactly one completed {@link Future} is handed to
+     * <code>rowSink</code> once the crawl finished.
+     *
+     * @param index position of the food URL in the crawled URL list
+     */
+    void submit(int index, URL foodURL, FoodPageProcessor processor, RowSink rowSink) throws InterruptedException;
+
+    /**
+     * Stops all running crawls and releases threads and connections.
+     */
+    @Override
+    void close();
+
+    /**
+     * Runs <code>task</code> on <code>executor</code> and hands it to <code>rowSink</code> when it is done.
+     */
+    static void execute(Executor executor, Callable<CrawledRow> task, RowSink rowSink) {
+        executor.execute(new FutureTask<CrawledRow>(task) {
+            @Override
+            protected void done() {
+                rowSink.accept(this);
+            }
+        });
+    }
+
+    /**
+     * @return crawl that failed with <code>failure</code>, to be handed to a {@link RowSink}
+     */
+    static Future<CrawledRow> failed(Throwable failure) {
+        CompletableFuture<CrawledRow> row = new CompletableFuture<>();
+        row.completeExceptionally(failure);
+        return row;
+    }
+}
@@ -0,0 +1,110 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Append-only journal of crawled foods, one line <code>&lt;BLS key&gt;\t&lt;food record line&gt;</code> per food (see
+ * {@link FoodRecord#appendLine(StringBuilder)}).
+ * Lines are buffered and forced to disk in batches, so a crawl that dies can be resumed with the foods not yet
+ * journaled. A partially written last line from a crash is discarded when the journal is reopened.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+class CrawlJournal implements Closeable {
+    private final Map<String, FoodRecord> rows;
+    private final FileChannel channel;
+    private final Writer writer;
+    private final int batchSize;
+    private final StringBuilder line = new StringBuilder(1 << 12);
+    private int unflushedRows = 0;
+
+    private CrawlJournal(Map<String, FoodRecord> rows, FileChannel channel, int batchSize) {
+        this.rows = rows;
+        this.channel = channel;
+        this.writer = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8), 1 << 16);
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Opens the journal at <code>path</code>, creating it if necessary, and reads all complete entries.
+     */
+    static CrawlJournal open(Path path, int batchSize) throws IOException {
+        if(batchSize < 1) {
+            throw new IllegalArgumentException("Journal batch size must be positive, got " + batchSize);
+        }
+        Map<String, FoodRecord> rows = new LinkedHashMap<>();
+        long validLength = 0;
+        if(Files.exists(path)) {
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(path))) {
+                ByteArrayOutputStream line = new ByteArrayOutputStream();
+                long position = 0;
+                int b;
+                while ((b = in.read()) != -1) {
+                    position++;
+                    if(b == '\n') {
+                        String entry = new String(line.toByteArray(), StandardCharsets.UTF_8);
+                        int separatorIndex = entry.indexOf('\t');
+                        if(separatorIndex < 0) {
+                            throw new IOException("Corrupt journal entry in " + path + " at byte " + validLength);
+                        }
+                        try {
+                            rows.put(entry.substring(0, separatorIndex), FoodRecord.parseLine(entry.substring(separatorIndex + 1)));
+                        } catch (IllegalArgumentException e) {
+                            throw new IOException("Corrupt journal entry in " + path + " at byte " + validLength, e);
+                        }
+                        validLength = position;
+                        line.reset();
+                    } else {
+                        line.write(b);
+                    }
+                }
+            }
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        //drop an incomplete last entry and continue after the last complete one
+        channel.truncate(validLength);
+        channel.position(validLength);
+        return new CrawlJournal(rows, channel, batchSize);
+    }
+
+    /**
+     * @return all foods journaled before this journal was opened, by BLS key
+     */
+    Map<String, FoodRecord> getRows() {
+        return Collections.unmodifiableMap(rows);
+    }
+
+    void append(String blsKey, FoodRecord record) throws IOException {
+        line.setLength(0);
+        line.append(blsKey).append('\t');
+        record.appendLine(line);
+        writer.append(line).write('\n');
+        if(++unflushedRows >= batchSize) {
+            flush();
+        }
+    }
+
+    void flush() throws IOException {
+        writer.flush();
+        channel.force(false);
+        unflushedRows = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,390 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Counters, gauges and per-stage latency histograms of a crawl. All methods are thread-safe and cheap enough to be
+ * called for every page. The metrics are exported over JMX while the crawl runs and can be appended to a file as one
+ * JSON object per line.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+class CrawlMetrics implements CrawlMetricsMXBean, Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CrawlMetrics.class);
+    private static final String OBJECT_NAME = "de.tu_dortmund.pgdfs.blscrawler:type=CrawlMetrics";
+
+    enum Stage {
+        FETCH, PARSE, MAP, SERIALIZE, WRITE
+    }
+
+    private final long startNanos = System.nanoTime();
+    private final Histogram[] stageHistograms = new Histogram[Stage.values().length];
+    private final AtomicInteger processedFoods = new AtomicInteger();
+    private final AtomicInteger totalFoods = new AtomicInteger(-1);
+    private final LongAdder rowsEmitted = new LongAdder();
+    private final LongAdder failedFoods = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder unmappedNutrients = new LongAdder();
+    private final LongAdder bytesDownloaded = new LongAdder();
+    private final AtomicInteger requestsInFlight = new AtomicInteger();
+    private final AtomicInteger reorderBufferDepth = new AtomicInteger();
+    private volatile IntSupplier concurrencyLimit = () -> 0;
+    private volatile IntSupplier completionQueueDepth = () -> 0;
+    private volatile IntSupplier parseQueueDepth = () -> 0;
+    private ObjectName objectName;
+    private ScheduledExecutorService dumpExecutorService;
+    private Path dumpPath;
+
+    CrawlMetrics() {
+        for (int i = 0; i < stageHistograms.length; i++) {
+            stageHistograms[i] = new Histogram();
+        }
+    }
+
+    /**
+     * @return metrics registered with the platform MBean server, appended to <code>dumpPath</code> every
+     * <code>dumpIntervalSeconds</code> unless it is <code>null</code>
+     */
+    static CrawlMetrics start(Path dumpPath, int dumpIntervalSeconds) {
+        CrawlMetrics metrics = new CrawlMetrics();
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(OBJECT_NAME);
+            if(!mBeanServer.isRegistered(objectName)) {
+                //wrapped, because the platform MBean server only accepts public MBean classes
+                mBeanServer.registerMBean(new StandardMBean(metrics, CrawlMetricsMXBean.class, true), objectName);
+                metrics.objectName = objectName;
+            }
+        } catch (JMException e) {
+            LOGGER.warn("Cannot export crawl metrics over JMX", e);
+        }
+        if(dumpPath != null) {
+            if(dumpIntervalSeconds < 1) {
+                throw new IllegalArgumentException("Metrics interval must be positive, got " + dumpIntervalSeconds);
+            }
+            metrics.dumpPath = dumpPath;
+            metrics.dumpExecutorService = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "metrics-dump");
+                thread.setDaemon(true);
+                return thread;
+            });
+            metrics.dumpExecutorService.scheduleAtFixedRate(metrics::dump, dumpIntervalSeconds, dumpIntervalSeconds, TimeUnit.SECONDS);
+        }
+        return metrics;
+    }
+
+    /**
+     * Records the time since <code>startNanos</code> for a stage.
+     *
+     * @return current {@link System#nanoTime()}, to time the next stage
+     */
+    long record(Stage stage, long startNanos) {
+        long nowNanos = System.nanoTime();
+        stageHistograms[stage.ordinal()].record(nowNanos - startNanos);
+        return nowNanos;
+    }
+
+    void foodProcessed() {
+        processedFoods.incrementAndGet();
+    }
+
+    void setTotalFoods(int foodCount) {
+        totalFoods.set(foodCount);
+    }
+
+    void rowEmitted() {
+        rowsEmitted.increment();
+    }
+
+    void foodFailed() {
+        failedFoods.increment();
+    }
+
+    void retried() {
+        retries.increment();
+    }
+
+    void addUnmappedNutrients(int count) {
+        unmappedNutrients.add(count);
+    }
+
+    void addBytesDownloaded(long bytes) {
+        bytesDownloaded.add(bytes);
+    }
+
+    void requestStarted() {
+        requestsInFlight.incrementAndGet();
+    }
+
+    void requestCompleted() {
+        requestsInFlight.decrementAndGet();
+    }
+
+    void setReorderBufferDepth(int depth) {
+        reorderBufferDepth.set(depth);
+    }
+
+    void setConcurrencyLimitGauge(IntSupplier concurrencyLimit) {
+        this.concurrencyLimit = concurrencyLimit;
+    }
+
+    void setCompletionQueueDepthGauge(IntSupplier completionQueueDepth) {
+        this.completionQueueDepth = completionQueueDepth;
+    }
+
+    void setParseQueueDepthGauge(IntSupplier parseQueueDepth) {
+        this.parseQueueDepth = parseQueueDepth;
+    }
+
+    @Override
+    public int getProcessedFoods() {
+        return processedFoods.get();
+    }
+
+    @Override
+    public int getTotalFoods() {
+        return totalFoods.get();
+    }
+
+    @Override
+    public long getRowsEmitted() {
+        return rowsEmitted.sum();
+    }
+
+    @Override
+    public long getFailedFoods() {
+        return failedFoods.sum();
+    }
+
+    @Override
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    @Override
+    public long getUnmappedNutrients() {
+        return unmappedNutrients.sum();
+    }
+
+    @Override
+    public long getBytesDownloaded() {
+        return bytesDownloaded.sum();
+    }
+
+    @Override
+    public int getRequestsInFlight() {
+        return requestsInFlight.get();
+    }
+
+    @Override
+    public int getConcurrencyLimit() {
+        return concurrencyLimit.getAsInt();
+    }
+
+    @Override
+    public int getCompletionQueueDepth() {
+        return completionQueueDepth.getAsInt();
+    }
+
+    @Override
+    public int getParseQueueDepth() {
+        return parseQueueDepth.getAsInt();
+    }
+
+    @Override
+    public int getReorderBufferDepth() {
+        return reorderBufferDepth.get();
+    }
+
+    @Override
+    public StageStatistics getFetch() {
+        return getStageStatistics(Stage.FETCH);
+    }
+
+    @Override
+    public StageStatistics getParse() {
+        return getStageStatistics(Stage.PARSE);
+    }
+
+    @Override
+    public StageStatistics getMap() {
+        return getStageStatistics(Stage.MAP);
+    }
+
+    @Override
+    public StageStatistics getSerialize() {
+        return getStageStatistics(Stage.SERIALIZE);
+    }
+
+    @Override
+    public StageStatistics getWrite() {
+        return getStageStatistics(Stage.WRITE);
+    }
+
+    StageStatistics getStageStatistics(Stage stage) {
+        return stageHistograms[stage.ordinal()].getStatistics();
+    }
+
+    /**
+     * @return share of the foods processed so far, <code>NaN</code> while the number of foods is unknown
+     */
+    double getProgress() {
+        int foodCount = totalFoods.get();
+        if(foodCount < 0) {
+            return Double.NaN;
+        }
+        return (foodCount == 0 ? 1 : (double) processedFoods.get() / foodCount);
+    }
+
+    /**
+     * @return all metrics as a single line JSON object
+     */
+    String toJSON() {
+        StringBuilder json = new StringBuilder(1024);
+        json.append("{\"timestamp\":\"").append(Instant.now()).append('"')
+                .append(",\"elapsedMillis\":").append(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos))
+                .append(",\"processedFoods\":").append(getProcessedFoods())
+                .append(",\"totalFoods\":").append(getTotalFoods())
+                .append(",\"rowsEmitted\":").append(getRowsEmitted())
+                .append(",\"failedFoods\":").append(getFailedFoods())
+                .append(",\"retries\":").append(getRetries())
+                .append(",\"unmappedNutrients\":").append(getUnmappedNutrients())
+                .append(",\"bytesDownloaded\":").append(getBytesDownloaded())
+                .append(",\"requestsInFlight\":").append(getRequestsInFlight())
+                .append(",\"concurrencyLimit\":").append(getConcurrencyLimit())
+                .append(",\"parseQueueDepth\":").append(getParseQueueDepth())
+                .append(",\"completionQueueDepth\":").append(getCompletionQueueDepth())
+                .append(",\"reorderBufferDepth\":").append(getReorderBufferDepth())
+                .append(",\"stages\":{");
+        for (Stage stage : Stage.values()) {
+            StageStatistics statistics = getStageStatistics(stage);
+            json.append(stage.ordinal() > 0 ? ",\"" : "\"").append(stage.name().toLowerCase()).append("\":{")
+                    .append("\"count\":").append(statistics.getCount())
+                    .append(",\"meanMicros\":").append(statistics.getMeanMicros())
+                    .append(",\"p50Micros\":").append(statistics.getP50Micros())
+                    .append(",\"p90Micros\":").append(statistics.getP90Micros())
+                    .append(",\"p99Micros\":").append(statistics.getP99Micros())
+                    .append(",\"maxMicros\":").append(statistics.getMaxMicros())
+                    .append('}');
+        }
+        return json.append("}}").toString();
+    }
+
+    private synchronized void dump() {
+        try (Writer writer = Files.newBufferedWriter(dumpPath, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            writer.write(toJSON());
+            writer.write('\n');
+        } catch (IOException e) {
+            LOGGER.warn("Cannot write metrics to " + dumpPath, e);
+        }
+    }
+
+    /**
+     * Writes a final dump and unregisters the metrics from JMX.
+     */
+    @Override
+    public void close() {
+        if(dumpExecutorService != null) {
+            dumpExecutorService.shutdownNow();
+            dump();
+        }
+        if(objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                //already gone
+            }
+        }
+    }
+
+    /**
+     * Histogram with four buckets per power of two of microseconds, so percentiles are off by at most 25% while
+     * recording stays a few atomic increments.
+     */
+    static final class Histogram {
+        private static final int SUB_BUCKET_BITS = 2;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        void record(long nanos) {
+            buckets.incrementAndGet(indexOf(Math.max(0, nanos / 1000)));
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+        }
+
+        static int indexOf(long micros) {
+            if(micros < SUB_BUCKETS) {
+                return (int) micros;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(micros);
+            int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+        }
+
+        /**
+         * @return largest value in the bucket
+         */
+        static long upperBoundOf(int index) {
+            if(index < SUB_BUCKETS) {
+                return index;
+            }
+            int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+            int subBucket = index % SUB_BUCKETS;
+            return ((long) (SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+        }
+
+        StageStatistics getStatistics() {
+            long[] snapshot = new long[buckets.length()];
+            long snapshotCount = 0;
+            for (int i = 0; i < snapshot.length; i++) {
+                snapshot[i] = buckets.get(i);
+                snapshotCount += snapshot[i];
+            }
+            long maxMicros = maxNanos.get() / 1000;
+            long countValue = count.sum();
+            return new StageStatistics(countValue, (countValue > 0 ? totalNanos.sum() / countValue / 1000 : 0),
+                    percentile(snapshot, snapshotCount, 0.5, maxMicros), percentile(snapshot, snapshotCount, 0.9, maxMicros),
+                    percentile(snapshot, snapshotCount, 0.99, maxMicros), maxMicros);
+        }
+
+        private static long percentile(long[] snapshot, long snapshotCount, double quantile, long maxMicros) {
+            long rank = (long) Math.ceil(quantile * snapshotCount);
+            long seen = 0;
+            for (int i = 0; i < snapshot.length; i++) {
+                seen += snapshot[i];
+                if(seen >= rank && seen > 0) {
+                    return Math.min(upperBoundOf(i), maxMicros);
+                }
+            }
+            return 0;
+        }
+    }
+}
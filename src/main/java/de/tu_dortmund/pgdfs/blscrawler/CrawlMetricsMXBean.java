@@ -0,0 +1,109 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Management interface of the {@link CrawlMetrics} of a running crawl, registered as
+ * <code>de.tu_dortmund.pgdfs.blscrawler:type=CrawlMetrics</code>. It has to be public to be exported over JMX.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+public interface CrawlMetricsMXBean {
+    int getProcessedFoods();
+
+    /**
+     * @return number of foods to crawl, <code>-1</code> while food URLs are still being fetched
+     */
+    int getTotalFoods();
+
+    long getRowsEmitted();
+
+    long getFailedFoods();
+
+    long getRetries();
+
+    long getUnmappedNutrients();
+
+    /**
+     * @return response body bytes received, after decompression
+     */
+    long getBytesDownloaded();
+
+    int getRequestsInFlight();
+
+    int getConcurrencyLimit();
+
+    /**
+     * @return downloaded pages waiting for or being parsed
+     */
+    int getParseQueueDepth();
+
+    int getCompletionQueueDepth();
+
+    int getReorderBufferDepth();
+
+    /**
+     * @return download of a page, or reading it from the page cache when crawling offline
+     */
+    StageStatistics getFetch();
+
+    /**
+     * @return parsing a page, including the nutrient mapping with the fast parser
+     */
+    StageStatistics getParse();
+
+    /**
+     * @return mapping the nutrient tables of a Jsoup DOM to BLS nutrients
+     */
+    StageStatistics getMap();
+
+    StageStatistics getSerialize();
+
+    StageStatistics getWrite();
+
+    /**
+     * Latency distribution of one stage, percentiles are accurate to 25%.
+     */
+    final class StageStatistics {
+        private final long count;
+        private final long meanMicros;
+        private final long p50Micros;
+        private final long p90Micros;
+        private final long p99Micros;
+        private final long maxMicros;
+
+        @ConstructorProperties({"count", "meanMicros", "p50Micros", "p90Micros", "p99Micros", "maxMicros"})
+        public StageStatistics(long count, long meanMicros, long p50Micros, long p90Micros, long p99Micros, long maxMicros) {
+            this.count = count;
+            this.meanMicros = meanMicros;
+            this.p50Micros = p50Micros;
+            this.p90Micros = p90Micros;
+            this.p99Micros = p99Micros;
+            this.maxMicros = maxMicros;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMeanMicros() {
+            return meanMicros;
+        }
+
+        public long getP50Micros() {
+            return p50Micros;
+        }
+
+        public long getP90Micros() {
+            return p90Micros;
+        }
+
+        public long getP99Micros() {
+            return p99Micros;
+        }
+
+        public long getMaxMicros() {
+            return maxMicros;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import java.net.URL;
+
+/**
+ * Result of crawling a single food page.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+class CrawledRow {
+    final int index;
+    final URL foodURL;
+    final FoodRecord record;
+    final boolean journaled;
+    final Throwable failure;
+    final long completedNanos;
+
+    /**
+     * @param index position of the food URL in the crawled URL list
+     * @param record values of the food, or <code>null</code> if it did not change since the last crawl
+     */
+    CrawledRow(int index, URL foodURL, FoodRecord record) {
+        this(index, foodURL, record, false, null);
+    }
+
+    private CrawledRow(int index, URL foodURL, FoodRecord record, boolean journaled, Throwable failure) {
+        this.index = index;
+        this.foodURL = foodURL;
+        this.record = record;
+        this.journaled = journaled;
+        this.failure = failure;
+        this.completedNanos = System.nanoTime();
+    }
+
+    /**
+     * @return row of a food crawled by a previous run and read from the {@link CrawlJournal}
+     */
+    static CrawledRow fromJournal(int index, URL foodURL, FoodRecord record) {
+        return new CrawledRow(index, foodURL, record, true, null);
+    }
+
+    /**
+     * @return placeholder of a food that could not be crawled, so the remaining foods can still be written
+     */
+    static CrawledRow failed(int index, URL foodURL, Throwable failure) {
+        return new CrawledRow(index, foodURL, null, false, failure);
+    }
+
+    boolean isFailed() {
+        return failure != null;
+    }
+
+    /**
+     * @return marker following the last food, <code>index</code> is the number of foods
+     */
+    static CrawledRow endOfInput(int foodCount) {
+        return new CrawledRow(foodCount, null, null, false, null);
+    }
+
+    boolean isEndOfInput() {
+        return foodURL == null;
+    }
+}
@@ -0,0 +1,284 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import io.netty.channel.Channel;
+import io.netty.handler.codec.http.HttpHeaders;
+import org.asynchttpclient.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.asynchttpclient.Dsl.asyncHttpClient;
+import static org.asynchttpclient.Dsl.config;
+
+/**
+ * The HTTP client all requests of a crawl go through, so they share one pool of keep-alive connections instead of
+ * paying for a TCP handshake per page. Responses are requested with <code>gzip</code>/<code>deflate</code> encoding
+ * and decompressed transparently. Blocking engines simply wait for the returned futures.
+ * <p>
+ * The client counts how many requests opened a new connection and how many reused a pooled one, and reports fetch
+ * latencies, downloaded bytes and requests in flight to the {@link CrawlMetrics}.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+class CrawlerHttpClient implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CrawlerHttpClient.class);
+
+    private final AsyncHttpClient httpClient;
+    private final CrawlMetrics metrics;
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong newConnectionCount = new AtomicLong();
+    private final AtomicLong reusedConnectionCount = new AtomicLong();
+
+    /**
+     * @param maxConnections      maximum number of open connections to the crawled host
+     * @param connectTimeoutMillis time to establish a connection
+     * @param readTimeoutMillis    time a connection may stay silent while waiting for the response
+     */
+    CrawlerHttpClient(int maxConnections, int connectTimeoutMillis, int readTimeoutMillis, CrawlMetrics metrics) {
+        if(maxConnections < 1) {
+            throw new IllegalArgumentException("Maximum number of connections must be positive, got " + maxConnections);
+        }
+        this.httpClient = asyncHttpClient(config()
+                .setKeepAlive(true)
+                .setMaxConnectionsPerHost(maxConnections)
+                .setCompressionEnforced(true)
+                .setFollowRedirect(true)
+                .setConnectTimeout(connectTimeoutMillis)
+                .setReadTimeout(readTimeoutMillis)
+                .setRequestTimeout(-1) //the search results may take longer than any single read
+                .setIoThreadsCount(Math.min(4, Runtime.getRuntime().availableProcessors())));
+        this.metrics = metrics;
+    }
+
+    /**
+     * Requests a page. Any status except <code>2xx</code> and <code>304 Not Modified</code> completes the future with
+     * a {@link FetchException}, as does a failed connection.
+     */
+    CompletableFuture<FetchedPage> fetchPage(URL url, Map<String, String> headers) {
+        BoundRequestBuilder request = httpClient.prepareGet(url.toString());
+        headers.forEach(request::setHeader);
+        requestCount.incrementAndGet();
+        metrics.requestStarted();
+        long startNanos = System.nanoTime();
+        CompletableFuture<FetchedPage> page = new CompletableFuture<>();
+        request.execute(new CountingCompletionHandler()).toCompletableFuture().whenComplete((response, throwable) -> {
+            metrics.record(CrawlMetrics.Stage.FETCH, startNanos);
+            metrics.requestCompleted();
+            if(throwable != null) {
+                page.completeExceptionally(FetchException.of(url, throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable));
+            } else if(!isSuccessful(response.getStatusCode()) && response.getStatusCode() != FetchedPage.NOT_MODIFIED) {
+                page.completeExceptionally(new FetchException(url, response.getStatusCode(), null));
+            } else {
+                page.complete(new FetchedPage(response.getStatusCode(), response.getResponseBody(), response.getHeader("ETag"), response.getHeader("Last-Modified")));
+            }
+        });
+        return page;
+    }
+
+    /**
+     * Blocking variant of {@link #fetchPage(URL, Map)}.
+     *
+     * @throws FetchException if the request failed
+     */
+    FetchedPage fetchPageAndWait(URL url, Map<String, String> headers) throws IOException, InterruptedException {
+        try {
+            return fetchPage(url, headers).get();
+        } catch (ExecutionException e) {
+            throw FetchException.of(url, e.getCause());
+        }
+    }
+
+    /**
+     * Posts a form and returns the response body as soon as the status and headers arrived, while it is still being
+     * downloaded. Body parts are queued by the I/O thread, so a slow reader never stalls other connections.
+     *
+     * @param form URL encoded form data
+     * @throws FetchException if the request failed or was answered with an error status
+     */
+    Reader postForm(URL url, String form) throws IOException, InterruptedException {
+        requestCount.incrementAndGet();
+        StreamingBodyHandler body = new StreamingBodyHandler();
+        httpClient.preparePost(url.toString())
+                .setHeader("Content-Type", "application/x-www-form-urlencoded; charset=UTF-8")
+                .setBody(form.getBytes(StandardCharsets.UTF_8))
+                .execute(body);
+        try {
+            body.headersReceived.get();
+        } catch (ExecutionException e) {
+            throw FetchException.of(url, e.getCause());
+        }
+        if(!isSuccessful(body.statusCode)) {
+            body.close();
+            throw new FetchException(url, body.statusCode, null);
+        }
+        return new InputStreamReader(body, body.charset);
+    }
+
+    private static boolean isSuccessful(int statusCode) {
+        return statusCode >= 200 && statusCode < 300;
+    }
+
+    private static Charset getCharset(String contentType) {
+        if(contentType != null) {
+            for (String parameter : contentType.split(";")) {
+                String trimmed = parameter.trim();
+                if(trimmed.regionMatches(true, 0, "charset=", 0, 8)) {
+                    try {
+                        return Charset.forName(trimmed.substring(8).replace("\"", ""));
+                    } catch (IllegalArgumentException e) {
+                        //fall back to default
+                    }
+                }
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    long getRequestCount() {
+        return requestCount.get();
+    }
+
+    long getNewConnectionCount() {
+        return newConnectionCount.get();
+    }
+
+    long getReusedConnectionCount() {
+        return reusedConnectionCount.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        long requests = getRequestCount();
+        if(requests > 0) {
+            LOGGER.info("HTTP client sent " + requests + " requests over " + getNewConnectionCount() + " connections, "
+                    + getReusedConnectionCount() + " requests (" + getReusedConnectionCount() * 100 / requests + "%) reused a pooled connection");
+        }
+        httpClient.close();
+    }
+
+    private class CountingCompletionHandler extends AsyncCompletionHandlerBase {
+        @Override
+        public void onTcpConnectSuccess(InetSocketAddress remoteAddress, Channel connection) {
+            newConnectionCount.incrementAndGet();
+        }
+
+        @Override
+        public void onConnectionPooled(Channel connection) {
+            reusedConnectionCount.incrementAndGet();
+        }
+
+        @Override
+        public State onBodyPartReceived(HttpResponseBodyPart content) throws Exception {
+            metrics.addBytesDownloaded(content.length());
+            return super.onBodyPartReceived(content);
+        }
+    }
+
+    /**
+     * Hands the body parts received by the I/O thread over to the reading thread.
+     */
+    private class StreamingBodyHandler extends InputStream implements AsyncHandler<Void> {
+        private final byte[] endOfBody = new byte[0];
+        private final BlockingQueue<byte[]> parts = new LinkedBlockingQueue<>();
+        private final CompletableFuture<Void> headersReceived = new CompletableFuture<>();
+        private volatile Throwable failure;
+        private volatile boolean closed = false;
+        private int statusCode;
+        private Charset charset = StandardCharsets.UTF_8;
+        private byte[] part;
+        private int partOffset;
+
+        @Override
+        public void onTcpConnectSuccess(InetSocketAddress remoteAddress, Channel connection) {
+            newConnectionCount.incrementAndGet();
+        }
+
+        @Override
+        public void onConnectionPooled(Channel connection) {
+            reusedConnectionCount.incrementAndGet();
+        }
+
+        @Override
+        public State onStatusReceived(HttpResponseStatus responseStatus) {
+            statusCode = responseStatus.getStatusCode();
+            return State.CONTINUE;
+        }
+
+        @Override
+        public State onHeadersReceived(HttpHeaders headers) {
+            charset = getCharset(headers.get("Content-Type"));
+            headersReceived.complete(null);
+            return (isSuccessful(statusCode) ? State.CONTINUE : State.ABORT);
+        }
+
+        @Override
+        public State onBodyPartReceived(HttpResponseBodyPart bodyPart) {
+            if(closed) {
+                return State.ABORT;
+            }
+            metrics.addBytesDownloaded(bodyPart.length());
+            parts.add(bodyPart.getBodyPartBytes());
+            return State.CONTINUE;
+        }
+
+        @Override
+        public void onThrowable(Throwable t) {
+            failure = t;
+            headersReceived.completeExceptionally(t);
+            parts.add(endOfBody);
+        }
+
+        @Override
+        public Void onCompleted() {
+            headersReceived.complete(null);
+            parts.add(endOfBody);
+            return null;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return (read(single, 0, 1) < 0 ? -1 : single[0] & 0xff);
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if(length == 0) {
+                return 0;
+            }
+            while (part == null || partOffset == part.length) {
+                if(part == endOfBody) {
+                    if(failure != null) {
+                        throw new IOException("Response body was cut off", failure);
+                    }
+                    return -1;
+                }
+                try {
+                    part = parts.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the response body");
+                }
+                partOffset = 0;
+            }
+            int count = Math.min(length, part.length - partOffset);
+            System.arraycopy(part, partOffset, buffer, offset, count);
+            partOffset += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            parts.clear();
+        }
+    }
+}
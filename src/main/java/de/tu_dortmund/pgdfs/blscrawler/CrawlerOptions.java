@@ -0,0 +1,368 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Command line options of the crawler. Options are given as <code>--name=value</code> (or just <code>--name</code>
+ * for flags) and must precede the path of the output file, which is always the last argument. The output file may
+ * only be left out when loading into a database or exporting.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+class CrawlerOptions {
+    static final String USAGE = "Usage: BLSCrawler [--insert-chunk-size=<rows>] [--ordered] [--base-url=<url>] [--engine=threads|async|virtual] [--fetch-threads=<n>] [--max-in-flight=<requests>] [--queue-capacity=<pages>] [--latency-target=<ms>] [--connect-timeout=<ms>] [--read-timeout=<ms>] [--max-attempts=<n>] [--retry-delay=<ms>] [--parser=jsoup|fast] [--english] [--cache-dir=<dir> [--offline]] [--journal=<file> [--journal-batch-size=<rows>]] [--delta-snapshot=<file>] [--columnar-snapshot=<file>] [--jdbc-url=<url> [--jdbc-batch-size=<rows>]] [--export=<file> [--export-format=tsv|csv]] [--compress] [--validate=<report file>] [--shard=<index>/<count> | --merge=<partial output>,...] [--metrics-file=<file> [--metrics-interval=<seconds>]] <output file>";
+
+    /**
+     * options writing the foods somewhere, an embedded crawl hands them to its subscribers instead
+     */
+    private static final List<String> OUTPUT_OPTIONS = Arrays.asList("delta-snapshot", "columnar-snapshot", "jdbc-url", "export", "compress", "validate", "merge");
+
+    private final Map<String, String> options;
+    private final String outputPath;
+
+    private CrawlerOptions(Map<String, String> options, String outputPath) {
+        this.options = options;
+        this.outputPath = outputPath;
+    }
+
+    static CrawlerOptions parse(String[] args) throws IllegalArgumentException {
+        Map<String, String> options = new HashMap<>();
+        String outputPath = null;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if(arg.startsWith("--")) {
+                putOption(options, arg);
+            } else if(i == args.length - 1) {
+                outputPath = arg;
+            } else {
+                throw new IllegalArgumentException("Unexpected argument \"" + arg + "\". " + USAGE);
+            }
+        }
+        //the delta of a crawl is always written as SQL, it decides which pages are fetched at all
+        if(outputPath == null && (!options.containsKey("jdbc-url") && !options.containsKey("export") || options.containsKey("delta-snapshot"))) {
+            throw new IllegalArgumentException("Expected path to file to save generated SQL to. " + USAGE);
+        }
+        checkCrawlOptions(options);
+        if(options.containsKey("shard") && outputPath == null) {
+            throw new IllegalArgumentException("Expected path to file to save the partial output of the shard to. " + USAGE);
+        }
+        if(options.containsKey("shard") && (options.containsKey("delta-snapshot") || options.containsKey("jdbc-url") || options.containsKey("validate") || options.containsKey("merge"))) {
+            throw new IllegalArgumentException("--shard writes a partial output and cannot be combined with --delta-snapshot, --jdbc-url, --validate or --merge. " + USAGE);
+        }
+        if(options.containsKey("merge") && options.containsKey("delta-snapshot")) {
+            throw new IllegalArgumentException("--merge writes all foods and cannot be combined with --delta-snapshot. " + USAGE);
+        }
+        if(options.containsKey("export") && options.containsKey("delta-snapshot")) {
+            throw new IllegalArgumentException("--export needs all foods and cannot be combined with --delta-snapshot. " + USAGE);
+        }
+        return new CrawlerOptions(options, outputPath);
+    }
+
+    /**
+     * Parses the options of a crawl embedded by {@link FoodPublisher}, which has no output file and hands the foods
+     * to its subscribers instead of writing them.
+     */
+    static CrawlerOptions parseEmbedded(String[] args) throws IllegalArgumentException {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if(!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument \"" + arg + "\", an embedded crawl has no output file");
+            }
+            putOption(options, arg);
+        }
+        for (String outputOption : OUTPUT_OPTIONS) {
+            if(options.containsKey(outputOption)) {
+                throw new IllegalArgumentException("--" + outputOption + " configures an output of the command line, subscribe to an embedded crawl instead");
+            }
+        }
+        checkCrawlOptions(options);
+        return new CrawlerOptions(options, null);
+    }
+
+    private static void putOption(Map<String, String> options, String arg) {
+        int separatorIndex = arg.indexOf('=');
+        if(separatorIndex < 0) {
+            options.put(arg.substring(2), "true");
+        } else {
+            options.put(arg.substring(2, separatorIndex), arg.substring(separatorIndex + 1));
+        }
+    }
+
+    /**
+     * Rejects invalid crawl options before any client is started.
+     */
+    private static void checkCrawlOptions(Map<String, String> options) {
+        if(options.containsKey("offline") && !options.containsKey("cache-dir")) {
+            throw new IllegalArgumentException("Offline mode requires --cache-dir. " + USAGE);
+        }
+        if(options.containsKey("english") && options.containsKey("offline")) {
+            throw new IllegalArgumentException("--english needs the English pages, which are not cached, and cannot be combined with --offline. " + USAGE);
+        }
+        if(options.containsKey("shard")) {
+            Shard.parse(options.get("shard"));
+        }
+    }
+
+    /**
+     * @return file to save the generated SQL to, or <code>null</code> if the foods are only loaded into a database
+     */
+    String getOutputPath() {
+        return outputPath;
+    }
+
+    /**
+     * @return number of rows per multi-row <code>INSERT</code> statement
+     */
+    int getInsertChunkSize() {
+        return getInt("insert-chunk-size", 1000);
+    }
+
+    /**
+     * @return whether rows are written sorted by BLS key instead of in completion order
+     */
+    boolean isOrderedByBLSKey() {
+        return getBoolean("ordered");
+    }
+
+    /**
+     * @return URL the search and food page paths are resolved against, ending with a slash, e.g. to crawl a
+     * {@link FixtureServer} instead of ernaehrung.de
+     */
+    String getBaseURL() {
+        String baseURL = options.getOrDefault("base-url", BLSCrawler.DEFAULT_BASE_URL);
+        return (baseURL.endsWith("/") ? baseURL : baseURL + "/");
+    }
+
+    /**
+     * @return <code>threads</code> for blocking requests on a thread pool, <code>async</code> for the non-blocking
+     * HTTP client, <code>virtual</code> for blocking requests on virtual threads (requires the jar of the
+     * <code>java21</code> build profile on Java 21)
+     */
+    String getEngine() {
+        return options.getOrDefault("engine", "threads");
+    }
+
+    /**
+     * @return number of threads of the <code>threads</code> engine that fetch pages, parsing runs on a separate pool
+     * sized to the number of cores
+     */
+    int getFetchThreads() {
+        return getInt("fetch-threads", 4 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @return maximum number of concurrent requests of the <code>async</code> and <code>virtual</code> engines
+     */
+    int getMaxInFlight() {
+        return getInt("max-in-flight", 256);
+    }
+
+    /**
+     * @return maximum number of pages waiting between two stages of the crawl, i.e. to be parsed or written
+     */
+    int getQueueCapacity() {
+        return getInt("queue-capacity", 256);
+    }
+
+    /**
+     * @return response time in milliseconds above which the engines reduce the number of concurrent requests
+     */
+    int getLatencyTarget() {
+        return getInt("latency-target", 1000);
+    }
+
+    /**
+     * @return time in milliseconds to establish a connection
+     */
+    int getConnectTimeout() {
+        return getInt("connect-timeout", 10000);
+    }
+
+    /**
+     * @return time in milliseconds a connection may stay silent while waiting for a response
+     */
+    int getReadTimeout() {
+        return getInt("read-timeout", 30000);
+    }
+
+    /**
+     * @return number of times a food page is requested before it is given up, if the server is unreachable or
+     * answers with 429 or 5xx
+     */
+    int getMaxAttempts() {
+        return getInt("max-attempts", 5);
+    }
+
+    /**
+     * @return base delay in milliseconds before a failed request is retried, doubled with every attempt
+     */
+    int getRetryDelay() {
+        return getInt("retry-delay", 500);
+    }
+
+    /**
+     * @return <code>jsoup</code> to parse food pages into a Jsoup DOM, <code>fast</code> for the single-pass
+     * {@link FoodPageExtractor}
+     */
+    String getParser() {
+        String parser = options.getOrDefault("parser", "jsoup");
+        if(!parser.equals("jsoup") && !parser.equals("fast")) {
+            throw new IllegalArgumentException("Unknown parser \"" + parser + "\". " + USAGE);
+        }
+        return parser;
+    }
+
+    /**
+     * @return directory of the page cache, or <code>null</code> if downloaded pages are not cached
+     */
+    String getCacheDir() {
+        return options.get("cache-dir");
+    }
+
+    /**
+     * @return whether the SQL is generated from the page cache only, without downloading anything
+     */
+    boolean isOffline() {
+        return getBoolean("offline");
+    }
+
+    /**
+     * @return journal of crawled foods used to resume an interrupted crawl, or <code>null</code> if crawls are not
+     * journaled; the journal is deleted once a crawl is complete, so it only exists after an interrupted one
+     */
+    String getJournal() {
+        return options.get("journal");
+    }
+
+    /**
+     * @return number of journal entries written before the journal is forced to disk
+     */
+    int getJournalBatchSize() {
+        return getInt("journal-batch-size", 100);
+    }
+
+    /**
+     * @return snapshot of the previous crawl, if set only changes to it are written and the snapshot is updated
+     */
+    String getDeltaSnapshot() {
+        return options.get("delta-snapshot");
+    }
+
+    /**
+     * @return file to store the crawled foods in as a {@link ColumnarSnapshot}, or <code>null</code> if only SQL is
+     * generated
+     */
+    String getColumnarSnapshot() {
+        return options.get("columnar-snapshot");
+    }
+
+    /**
+     * @return JDBC URL of the database to load the foods into by {@link JDBCRowWriter}, or <code>null</code> if they
+     * are not loaded
+     */
+    String getJDBCURL() {
+        return options.get("jdbc-url");
+    }
+
+    /**
+     * @return number of rows sent to the database at once
+     */
+    int getJDBCBatchSize() {
+        return getInt("jdbc-batch-size", 1000);
+    }
+
+    /**
+     * @return file to export the foods to for <code>LOAD DATA INFILE</code>, or <code>null</code> if they are not
+     * exported
+     */
+    String getExport() {
+        return options.get("export");
+    }
+
+    /**
+     * @return <code>TSV</code> for tab separated values, <code>CSV</code> for comma separated values with quoted texts
+     */
+    DelimitedFileWriter.Format getExportFormat() {
+        String format = options.getOrDefault("export-format", "tsv");
+        if(!format.equals("tsv") && !format.equals("csv")) {
+            throw new IllegalArgumentException("Unknown export format \"" + format + "\". " + USAGE);
+        }
+        return DelimitedFileWriter.Format.valueOf(format.toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * @return whether the English variant of every food page is crawled as well to fill the English food name
+     */
+    boolean isEnglish() {
+        return getBoolean("english");
+    }
+
+    /**
+     * @return whether the output file and the export are written as gzip, compressed on all cores; the columnar
+     * snapshot is memory-mapped and always uncompressed
+     */
+    boolean isCompressed() {
+        return getBoolean("compress");
+    }
+
+    /**
+     * @return part of the foods to crawl, or <code>null</code> to crawl all foods; the output file then receives the
+     * partial output of the shard, see {@link ShardWriter}
+     */
+    Shard getShard() {
+        String shard = options.get("shard");
+        return (shard != null ? Shard.parse(shard) : null);
+    }
+
+    /**
+     * @return partial outputs of all shards of a crawl to merge into the output instead of crawling, or
+     * <code>null</code> to crawl
+     */
+    List<String> getMergeShards() {
+        String partialOutputs = options.get("merge");
+        return (partialOutputs != null ? Arrays.asList(partialOutputs.split(",")) : null);
+    }
+
+    /**
+     * @return file to report invalid foods to, or <code>null</code> to write the foods as crawled; validating fills
+     * the derived columns and writes the report once the crawl is complete, see {@link ValidatingRowWriter}
+     */
+    String getValidationReport() {
+        return options.get("validate");
+    }
+
+    /**
+     * @return file the metrics are appended to as one JSON object per line, or <code>null</code> if they are only
+     * exported over JMX
+     */
+    String getMetricsFile() {
+        return options.get("metrics-file");
+    }
+
+    /**
+     * @return seconds between two lines of the metrics file
+     */
+    int getMetricsInterval() {
+        return getInt("metrics-interval", 10);
+    }
+
+    private boolean getBoolean(String name) {
+        return Boolean.parseBoolean(options.get(name));
+    }
+
+    private int getInt(String name, int defaultValue) {
+        String value = options.get(name);
+        if(value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Option --" + name + " expects a number, got \"" + value + "\"", e);
+        }
+    }
+}
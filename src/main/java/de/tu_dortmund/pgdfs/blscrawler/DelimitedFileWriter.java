@@ -0,0 +1,181 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Exports the foods as tab or comma separated values that MariaDB imports by <code>LOAD DATA INFILE</code> much faster
+ * than it parses the <code>INSERT</code> statements of the SQL dump, see {@link #getLoadDataStatement(String)}. The
+ * first line names the columns, which are in the order of {@link BLSNutrient}, missing values are <code>\N</code>.
+ * <p>
+ * Lines are encoded into a reused direct buffer, which is handed to a {@link FileChannel} whenever it is full, so no
+ * row allocates. The file is written next to its destination and only moved there by {@link #complete()}, an
+ * import never sees a partial export. A compressed export is gzip, see {@link ParallelGzipOutputStream}, and has to be
+ * decompressed before the import.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+class DelimitedFileWriter implements FoodRowWriter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DelimitedFileWriter.class);
+    private static final int BUFFER_SIZE = 1 << 18;
+
+    enum Format {
+        TSV('\t', ""),
+        CSV(',', " OPTIONALLY ENCLOSED BY '\"'");
+
+        private final char separator;
+        private final String enclosedByClause;
+
+        Format(char separator, String enclosedByClause) {
+            this.separator = separator;
+            this.enclosedByClause = enclosedByClause;
+        }
+    }
+
+    private final Path path;
+    private final Path tempPath;
+    private final Format format;
+    private final CrawlMetrics metrics;
+    private final boolean compressed;
+    private final FileChannel fileChannel;
+    private final ParallelGzipOutputStream compressedStream;
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+    private final StringBuilder line = new StringBuilder(1 << 12);
+    private char[] lineChars = new char[1 << 12];
+    private CharBuffer lineBuffer = CharBuffer.wrap(lineChars);
+    private boolean completed = false;
+
+    DelimitedFileWriter(Path path, boolean compressed, Format format, CrawlMetrics metrics) throws IOException {
+        this.path = path;
+        this.compressed = compressed;
+        this.format = format;
+        this.metrics = metrics;
+        //not a temp file of Files, the export keeps the default permissions so the database server can read it
+        this.tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+        this.fileChannel = FileChannel.open(tempPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        if(compressed) {
+            this.compressedStream = new ParallelGzipOutputStream(Channels.newOutputStream(fileChannel), Runtime.getRuntime().availableProcessors());
+            this.channel = Channels.newChannel(compressedStream);
+        } else {
+            this.compressedStream = null;
+            this.channel = fileChannel;
+        }
+        for (BLSNutrient nutrient : BLSNutrient.values()) {
+            if(line.length() > 0) {
+                line.append(format.separator);
+            }
+            line.append(nutrient.getTableColumnName());
+        }
+        writeLine();
+    }
+
+    /**
+     * @return statement importing the file into the food table, e.g. by <code>mysql --local-infile</code>, after it
+     * was decompressed by <code>gunzip</code> if it is compressed
+     */
+    String getLoadDataStatement(String table) {
+        String file = path.toAbsolutePath().toString();
+        if(compressed && file.endsWith(".gz")) {
+            file = file.substring(0, file.length() - 3);
+        }
+        StringBuilder columns = new StringBuilder();
+        for (BLSNutrient nutrient : BLSNutrient.values()) {
+            if(columns.length() > 0) {
+                columns.append(", ");
+            }
+            columns.append(nutrient.getTableColumnName());
+        }
+        return "LOAD DATA LOCAL INFILE '" + file.replace("\\", "\\\\").replace("'", "\\'") + "'" +
+                " INTO TABLE " + table + " CHARACTER SET utf8mb4" +
+                " FIELDS TERMINATED BY '" + (format.separator == '\t' ? "\\t" : String.valueOf(format.separator)) + "'" + format.enclosedByClause + " ESCAPED BY '\\\\'" +
+                " LINES TERMINATED BY '\\n' IGNORE 1 LINES (" + columns + ");";
+    }
+
+    @Override
+    public void writeRow(String blsKey, FoodRecord record) throws IOException {
+        if(record == null) {
+            throw new IOException("Page of " + blsKey + " reported as not modified, but exports need all foods");
+        }
+        long startNanos = System.nanoTime();
+        line.setLength(0);
+        if(format == Format.CSV) {
+            record.appendCSVLine(line);
+        } else {
+            record.appendLine(line);
+        }
+        long serializedNanos = metrics.record(CrawlMetrics.Stage.SERIALIZE, startNanos);
+        writeLine();
+        metrics.record(CrawlMetrics.Stage.WRITE, serializedNanos);
+    }
+
+    private void writeLine() throws IOException {
+        line.append('\n');
+        if(lineChars.length < line.length()) {
+            lineChars = new char[Math.max(line.length(), lineChars.length * 2)];
+            lineBuffer = CharBuffer.wrap(lineChars);
+        }
+        line.getChars(0, line.length(), lineChars, 0);
+        lineBuffer.limit(line.length()).position(0);
+        //lines are complete, so the encoder never holds back half a surrogate pair
+        while (true) {
+            CoderResult result = encoder.encode(lineBuffer, buffer, false);
+            if(result.isOverflow()) {
+                flushBuffer();
+            } else if(result.isUnderflow()) {
+                break;
+            } else {
+                result.throwException();
+            }
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Moves the export to its destination, replacing the previous export.
+     */
+    @Override
+    public void complete() throws IOException {
+        flushBuffer();
+        if(compressedStream != null) {
+            compressedStream.finish();
+        }
+        fileChannel.force(false);
+        channel.close();
+        PageCache.moveAtomically(tempPath, path);
+        completed = true;
+        LOGGER.info("Exported foods to " + path.toAbsolutePath() + ", import them " + (compressed ? "after gunzip " : "") + "by " + getLoadDataStatement(JDBCRowWriter.TABLE));
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(!completed) {
+            try {
+                channel.close();
+            } finally {
+                Files.deleteIfExists(tempPath);
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Writes only the difference to the previous crawl: <code>INSERT ... ON DUPLICATE KEY UPDATE</code> for new and
+ * changed foods and <code>DELETE</code> for foods that disappeared. Rows are compared by a content hash recorded in a
+ * {@link DeltaSnapshot}, which is replaced by the snapshot of this crawl once it completed successfully.
+ * <p>
+ * Pages are requested conditionally and the row of a page the server reports unmodified is kept as it is, unless the
+ * previous snapshot was mapped with another {@link BLSCrawler#MAPPING_VERSION}; then every page is fetched and mapped
+ * again.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+class DeltaSQLWriter implements FoodRowWriter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DeltaSQLWriter.class);
+    private static final int DELETE_CHUNK_SIZE = 1000;
+
+    private final SQLDumpWriter sqlDumpWriter;
+    private final CrawlMetrics metrics;
+    private final Path snapshotPath;
+    private final DeltaSnapshot previousSnapshot;
+    private final DeltaSnapshot currentSnapshot = new DeltaSnapshot(BLSCrawler.MAPPING_VERSION);
+    private final Map<String, String[]> validators = new ConcurrentHashMap<>();
+    private final StringBuilder valueList = new StringBuilder(1 << 12);
+    private int insertedRows = 0;
+    private int updatedRows = 0;
+    private int unchangedRows = 0;
+    private boolean completed = false;
+
+    DeltaSQLWriter(Path path, boolean compressed, String header, int chunkSize, Path snapshotPath, CrawlMetrics metrics) throws IOException {
+        this.sqlDumpWriter = new SQLDumpWriter(path, compressed, header, chunkSize, buildUpdateClause(), metrics);
+        this.metrics = metrics;
+        this.snapshotPath = snapshotPath;
+        this.previousSnapshot = DeltaSnapshot.read(snapshotPath);
+        if(previousSnapshot.getMappingVersion() != BLSCrawler.MAPPING_VERSION) {
+            LOGGER.info("Snapshot " + snapshotPath + " was mapped with version " + previousSnapshot.getMappingVersion() + " instead of " + BLSCrawler.MAPPING_VERSION + ", fetching all pages in full");
+        }
+    }
+
+    private static String buildUpdateClause() {
+        StringBuilder clause = new StringBuilder("\n ON DUPLICATE KEY UPDATE ");
+        boolean first = true;
+        for (BLSNutrient blsNutrient : BLSNutrient.values()) {
+            if(blsNutrient != BLSNutrient.BLS_SCHLUESSEL) {
+                if(!first) {
+                    clause.append(", ");
+                }
+                first = false;
+                clause.append(blsNutrient.getTableColumnName()).append(" = VALUES(").append(blsNutrient.getTableColumnName()).append(")");
+            }
+        }
+        return clause.toString();
+    }
+
+    /**
+     * @return request headers that let the server answer with <code>304 Not Modified</code> if the page did not change
+     * since the previous crawl, none if its row was mapped differently
+     */
+    Map<String, String> getConditionalRequestHeaders(String blsKey) {
+        DeltaSnapshot.Entry entry = previousSnapshot.get(blsKey);
+        if(entry == null || previousSnapshot.getMappingVersion() != BLSCrawler.MAPPING_VERSION) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> headers = new HashMap<>();
+        if(entry.eTag != null) {
+            headers.put("If-None-Match", entry.eTag);
+        }
+        if(entry.lastModified != null) {
+            headers.put("If-Modified-Since", entry.lastModified);
+        }
+        return headers;
+    }
+
+    /**
+     * Records the validators of a freshly fetched page for the next crawl, may be called from any thread.
+     */
+    void recordValidators(String blsKey, String eTag, String lastModified) {
+        validators.put(blsKey, new String[]{eTag, lastModified});
+    }
+
+    @Override
+    public void writeRow(String blsKey, FoodRecord record) throws IOException {
+        DeltaSnapshot.Entry previousEntry = previousSnapshot.get(blsKey);
+        String[] pageValidators = validators.remove(blsKey);
+        if(record == null) {
+            if(previousEntry == null) {
+                throw new IOException("Page of " + blsKey + " reported as not modified, but it is missing in snapshot " + snapshotPath);
+            }
+            currentSnapshot.put(blsKey, previousEntry);
+            unchangedRows++;
+            return;
+        }
+        long startNanos = System.nanoTime();
+        valueList.setLength(0);
+        record.appendValueList(valueList);
+        long serializedNanos = metrics.record(CrawlMetrics.Stage.SERIALIZE, startNanos);
+        String rowHash = PageCache.sha256(valueList.toString().getBytes(StandardCharsets.UTF_8));
+        currentSnapshot.put(blsKey, new DeltaSnapshot.Entry(rowHash,
+                pageValidators != null ? pageValidators[0] : null,
+                pageValidators != null ? pageValidators[1] : null));
+        if(previousEntry == null) {
+            insertedRows++;
+            sqlDumpWriter.writeValueList(valueList);
+        } else if(!previousEntry.rowHash.equals(rowHash)) {
+            updatedRows++;
+            sqlDumpWriter.writeValueList(valueList);
+        } else {
+            unchangedRows++;
+        }
+        metrics.record(CrawlMetrics.Stage.WRITE, serializedNanos);
+    }
+
+    /**
+     * Deletes foods which were not crawled this time and replaces the snapshot. Not calling this method before
+     * {@link #close()}, e.g. because crawling failed, keeps the previous snapshot and deletes nothing.
+     */
+    @Override
+    public void complete() throws IOException {
+        List<String> removedKeys = new ArrayList<>();
+        for (String blsKey : previousSnapshot.getEntries().keySet()) {
+            if(currentSnapshot.get(blsKey) == null) {
+                removedKeys.add(blsKey);
+            }
+        }
+        Collections.sort(removedKeys);
+        for (int i = 0; i < removedKeys.size(); i += DELETE_CHUNK_SIZE) {
+            StringBuilder deleteStatement = new StringBuilder("DELETE FROM food WHERE ").append(BLSNutrient.BLS_SCHLUESSEL.getTableColumnName()).append(" IN (");
+            List<String> chunk = removedKeys.subList(i, Math.min(i + DELETE_CHUNK_SIZE, removedKeys.size()));
+            for (int j = 0; j < chunk.size(); j++) {
+                deleteStatement.append(j == 0 ? "'" : ", '").append(chunk.get(j)).append("'");
+            }
+            sqlDumpWriter.writeStatement(deleteStatement.append(")").toString());
+        }
+        completed = true;
+        LOGGER.info("Delta: " + insertedRows + " new, " + updatedRows + " changed, " + removedKeys.size() + " removed, " + unchangedRows + " unchanged foods");
+    }
+
+    @Override
+    public void close() throws IOException {
+        sqlDumpWriter.close();
+        if(completed) {
+            currentSnapshot.write(snapshotPath);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * State of the foods table after a crawl: content hash of every row and the HTTP validators of its page. Stored as
+ * one line <code>&lt;BLS key&gt;\t&lt;row hash&gt;\t&lt;ETag&gt;\t&lt;Last-Modified&gt;</code> per food, missing
+ * validators are written as <code>-</code>. The first line <code>#mapping-version\t&lt;version&gt;</code> records the
+ * {@link BLSCrawler#MAPPING_VERSION} the rows were mapped with, snapshots without it have version 0.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+class DeltaSnapshot {
+    private static final String MISSING = "-";
+    private static final String MAPPING_VERSION_HEADER = "#mapping-version";
+
+    private final int mappingVersion;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    DeltaSnapshot(int mappingVersion) {
+        this.mappingVersion = mappingVersion;
+    }
+
+    /**
+     * @return the snapshot stored at <code>path</code>, or an empty snapshot if there is none yet
+     */
+    static DeltaSnapshot read(Path path) throws IOException {
+        if(!Files.exists(path)) {
+            return new DeltaSnapshot(BLSCrawler.MAPPING_VERSION);
+        }
+        List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+        int mappingVersion = 0;
+        if(!lines.isEmpty() && lines.get(0).startsWith(MAPPING_VERSION_HEADER + "\t")) {
+            try {
+                mappingVersion = Integer.parseInt(lines.get(0).substring(MAPPING_VERSION_HEADER.length() + 1));
+            } catch (NumberFormatException e) {
+                throw new IOException("Corrupt mapping version in " + path + ": \"" + lines.get(0) + "\"", e);
+            }
+            lines = lines.subList(1, lines.size());
+        }
+        DeltaSnapshot snapshot = new DeltaSnapshot(mappingVersion);
+        for (String line : lines) {
+            String[] fields = line.split("\t", -1);
+            if(fields.length != 4) {
+                throw new IOException("Corrupt snapshot line in " + path + ": \"" + line + "\"");
+            }
+            snapshot.entries.put(fields[0], new Entry(fields[1], fromField(fields[2]), fromField(fields[3])));
+        }
+        return snapshot;
+    }
+
+    void write(Path path) throws IOException {
+        Path tempPath = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempPath, StandardCharsets.UTF_8)) {
+            writer.write(MAPPING_VERSION_HEADER + "\t" + mappingVersion + "\n");
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                writer.write(entry.getKey() + "\t" + entry.getValue().rowHash + "\t" + toField(entry.getValue().eTag) + "\t" + toField(entry.getValue().lastModified) + "\n");
+            }
+        }
+        PageCache.moveAtomically(tempPath, path);
+    }
+
+    /**
+     * @return version of the mapping from pages to rows the row hashes were computed with
+     */
+    int getMappingVersion() {
+        return mappingVersion;
+    }
+
+    Entry get(String blsKey) {
+        return entries.get(blsKey);
+    }
+
+    void put(String blsKey, Entry entry) {
+        entries.put(blsKey, entry);
+    }
+
+    Map<String, Entry> getEntries() {
+        return entries;
+    }
+
+    private static String fromField(String field) {
+        return (MISSING.equals(field) ? null : field);
+    }
+
+    private static String toField(String value) {
+        return (value == null || value.isEmpty() ? MISSING : value.replace('\t', ' ').replace('\n', ' '));
+    }
+
+    static class Entry {
+        final String rowHash;
+        final String eTag;
+        final String lastModified;
+
+        Entry(String rowHash, String eTag, String lastModified) {
+            this.rowHash = rowHash;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+        }
+    }
+}
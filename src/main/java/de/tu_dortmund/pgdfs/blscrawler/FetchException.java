@@ -0,0 +1,44 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * Failure to download a food page, as opposed to a failure to process it. Rate limiting, server errors and I/O
+ * problems like timeouts are worth retrying, other HTTP errors like <code>404 Not Found</code> are not.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+class FetchException extends IOException {
+    private static final long serialVersionUID = 1L;
+    static final int NO_RESPONSE = -1;
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    final int statusCode;
+
+    /**
+     * @param statusCode HTTP status code, or {@link #NO_RESPONSE} if the request failed before a response arrived
+     */
+    FetchException(URL foodURL, int statusCode, Throwable cause) {
+        super((statusCode == NO_RESPONSE ? "Failed" : "HTTP error " + statusCode) + " fetching " + foodURL, cause);
+        this.statusCode = statusCode;
+    }
+
+    /**
+     * @return <code>cause</code> if it is a fetch exception already, otherwise a failure without response; HTTP
+     * errors are raised by {@link CrawlerHttpClient} with the status of the response
+     */
+    static FetchException of(URL foodURL, Throwable cause) {
+        if(cause instanceof FetchException) {
+            return (FetchException) cause;
+        }
+        return new FetchException(foodURL, NO_RESPONSE, cause);
+    }
+
+    /**
+     * @return whether the server is likely to answer a later attempt, which also means it may be overloaded
+     */
+    boolean isRetryable() {
+        return statusCode == NO_RESPONSE || statusCode == TOO_MANY_REQUESTS || statusCode >= 500;
+    }
+}
@@ -0,0 +1,33 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+/**
+ * Raw response for a food page together with the validators needed for conditional requests.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+class FetchedPage {
+    static final int NOT_MODIFIED = 304;
+
+    final int statusCode;
+    final String body;
+    final String eTag;
+    final String lastModified;
+
+    FetchedPage(int statusCode, String body, String eTag, String lastModified) {
+        this.statusCode = statusCode;
+        this.body = body;
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+    }
+
+    static FetchedPage of(String body) {
+        return new FetchedPage(200, body, null, null);
+    }
+
+    /**
+     * @return whether the server confirmed that the page did not change since the validators sent with the request
+     */
+    boolean isNotModified() {
+        return statusCode == NOT_MODIFIED;
+    }
+}
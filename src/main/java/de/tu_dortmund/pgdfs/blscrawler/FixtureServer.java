@@ -0,0 +1,367 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Local stand-in for ernaehrung.de to load and soak test the crawler without network access. It answers the search
+ * request and serves the food pages of either a synthetic catalog of any size or the pages recorded in a
+ * {@link PageCache}. Latency, slow responses, errors and bandwidth can be configured to resemble a remote server.
+ * Synthetic foods also have an English page. Responses are gzip compressed if the client accepts it.
+ * Crawl it with <code>--base-url=http://localhost:&lt;port&gt;/lebensmittel/</code>.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+public class FixtureServer implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FixtureServer.class);
+    private static final String BASE_PATH = "/lebensmittel/";
+    static final String USAGE = "Usage: FixtureServer [--port=<port>] [--foods=<count> | --cache-dir=<dir>] [--latency=<ms>] [--latency-jitter=<ms>] [--slow-rate=<fraction> --slow-latency=<ms>] [--error-rate=<fraction>] [--bandwidth=<bytes per second>]";
+
+    private final HttpServer server;
+    private final ExecutorService executorService = Executors.newCachedThreadPool();
+    private final Catalog catalog;
+    private final Map<String, String> options;
+    private final Map<String, byte[]> searchResultsByHost = new ConcurrentHashMap<>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong injectedErrors = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    private FixtureServer(Map<String, String> options) throws IOException {
+        this.options = options;
+        if(options.containsKey("cache-dir")) {
+            this.catalog = new RecordedCatalog(new PageCache(Paths.get(options.get("cache-dir"))));
+        } else {
+            this.catalog = new SyntheticCatalog(getInt("foods", 15000));
+        }
+        this.server = HttpServer.create(new InetSocketAddress(getInt("port", 8080)), 256);
+        server.createContext(BASE_PATH, this::handle);
+        server.setExecutor(executorService);
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if(!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument \"" + arg + "\". " + USAGE);
+            }
+            int separatorIndex = arg.indexOf('=');
+            if(separatorIndex < 0) {
+                throw new IllegalArgumentException("Option " + arg + " expects a value. " + USAGE);
+            }
+            options.put(arg.substring(2, separatorIndex), arg.substring(separatorIndex + 1));
+        }
+        //without it delayed ACKs stall every response on a keep-alive connection by up to 40 ms
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        FixtureServer fixtureServer = new FixtureServer(options);
+        Runtime.getRuntime().addShutdownHook(new Thread(fixtureServer::close));
+        fixtureServer.start();
+    }
+
+    private void start() {
+        server.start();
+        LOGGER.info("Serving " + catalog.getBLSKeys().size() + " foods, crawl with --base-url=http://localhost:" + server.getAddress().getPort() + BASE_PATH);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executorService.shutdownNow();
+        LOGGER.info("Served " + requests.get() + " requests with " + bytesSent.get() + " bytes, " + injectedErrors.get() + " injected errors");
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            requests.incrementAndGet();
+            simulateLatency();
+            String path = exchange.getRequestURI().getPath();
+            if(path.equals(BASE_PATH + BLSCrawler.SEARCH_PATH) && exchange.getRequestMethod().equals("POST")) {
+                String host = exchange.getRequestHeaders().getFirst("Host");
+                send(exchange, 200, searchResultsByHost.computeIfAbsent(host != null ? host : "localhost", this::buildSearchResults));
+            } else if(path.startsWith(BASE_PATH + BLSCrawler.FOOD_PATH) || path.startsWith(BASE_PATH + BLSCrawler.ENGLISH_FOOD_PATH)) {
+                //errors are only injected into food pages, which are retried by the crawler
+                if(ThreadLocalRandom.current().nextDouble() < getDouble("error-rate")) {
+                    injectedErrors.incrementAndGet();
+                    send(exchange, 503, new byte[0]);
+                    return;
+                }
+                String page = getFoodPage(path);
+                if(page == null) {
+                    send(exchange, 404, new byte[0]);
+                    return;
+                }
+                byte[] body = page.getBytes(StandardCharsets.UTF_8);
+                String eTag = "\"" + PageCache.sha256(body).substring(0, 16) + "\"";
+                exchange.getResponseHeaders().set("ETag", eTag);
+                if(eTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    send(exchange, FetchedPage.NOT_MODIFIED, new byte[0]);
+                } else {
+                    send(exchange, 200, body);
+                }
+            } else {
+                send(exchange, 404, new byte[0]);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * @return food page at <code>path</code>, or <code>null</code> if there is none
+     */
+    private String getFoodPage(String path) throws IOException {
+        String englishPathPrefix = BASE_PATH + BLSCrawler.ENGLISH_FOOD_PATH;
+        boolean english = path.startsWith(englishPathPrefix);
+        String blsKey;
+        try {
+            blsKey = BLSCrawler.getBLSKey(new URL("http", "localhost", english ? BASE_PATH + BLSCrawler.FOOD_PATH + path.substring(englishPathPrefix.length()) : path));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        return (english ? catalog.getEnglishPage(blsKey) : catalog.getPage(blsKey));
+    }
+
+    private void simulateLatency() throws InterruptedException {
+        long latency = getInt("latency", 0);
+        int jitter = getInt("latency-jitter", 0);
+        if(jitter > 0) {
+            latency += ThreadLocalRandom.current().nextInt(jitter + 1);
+        }
+        if(ThreadLocalRandom.current().nextDouble() < getDouble("slow-rate")) {
+            latency += getInt("slow-latency", 5000);
+        }
+        if(latency > 0) {
+            Thread.sleep(latency);
+        }
+    }
+
+    /**
+     * Sends the body in slices of a tenth of the bandwidth per 100 ms if the bandwidth is limited.
+     */
+    private void send(HttpExchange exchange, int statusCode, byte[] body) throws IOException, InterruptedException {
+        exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if(body.length > 0 && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            body = gzip(body);
+        }
+        exchange.sendResponseHeaders(statusCode, body.length == 0 ? -1 : body.length);
+        if(body.length == 0) {
+            return;
+        }
+        int bandwidth = getInt("bandwidth", 0);
+        int sliceSize = (bandwidth > 0 ? Math.max(1, bandwidth / 10) : body.length);
+        OutputStream out = exchange.getResponseBody();
+        for (int offset = 0; offset < body.length; offset += sliceSize) {
+            if(offset > 0) {
+                Thread.sleep(100);
+            }
+            out.write(body, offset, Math.min(sliceSize, body.length - offset));
+            out.flush();
+        }
+        bytesSent.addAndGet(body.length);
+    }
+
+    private static byte[] gzip(byte[] body) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4);
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(body);
+        }
+        return compressed.toByteArray();
+    }
+
+    private byte[] buildSearchResults(String host) {
+        StringBuilder page = new StringBuilder(catalog.getBLSKeys().size() * 120 + 1024);
+        page.append("<!DOCTYPE html>\n<html lang=\"de\">\n<head>\n<meta charset=\"utf-8\">\n<title>Suche</title>\n</head>\n<body>\n");
+        page.append("<div class=\"container\" id=\"wrapper\">\n<h1>Suchergebnisse</h1>\n<div class=\"list-group\">\n");
+        for (String blsKey : catalog.getBLSKeys()) {
+            page.append("<a class=\"list-group-item\" href=\"http://").append(host).append(BASE_PATH).append(BLSCrawler.FOOD_PATH)
+                    .append(blsKey).append('/').append(catalog.getPageName(blsKey)).append("\">").append(blsKey).append("</a>\n");
+        }
+        page.append("</div>\n</div>\n</body>\n</html>\n");
+        return page.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private int getInt(String name, int defaultValue) {
+        String value = options.get(name);
+        if(value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Option --" + name + " expects a number, got \"" + value + "\"", e);
+        }
+    }
+
+    private double getDouble(String name) {
+        String value = options.get(name);
+        if(value == null) {
+            return 0;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Option --" + name + " expects a number, got \"" + value + "\"", e);
+        }
+    }
+
+    private interface Catalog {
+        List<String> getBLSKeys();
+
+        /**
+         * @return last path segment of the food page URL
+         */
+        String getPageName(String blsKey);
+
+        /**
+         * @return food page, or <code>null</code> if the catalog does not contain the food
+         */
+        String getPage(String blsKey) throws IOException;
+
+        /**
+         * @return English variant of the food page, or <code>null</code> if there is none
+         */
+        String getEnglishPage(String blsKey) throws IOException;
+    }
+
+    /**
+     * Generates food pages in the layout of ernaehrung.de from the BLS key, so the same key always gives the same page.
+     */
+    private static class SyntheticCatalog implements Catalog {
+        private static final String KEY_LETTERS = "BCDEFGHKMNPQRSTUVWXY";
+        private static final int TABLE_COUNT = FoodPageExtractor.NUTRIENT_TABLE_COUNT;
+
+        private final List<String> blsKeys;
+        private final Set<String> blsKeySet;
+        private final List<List<Map.Entry<String, BLSNutrient>>> tables = new ArrayList<>();
+
+        private SyntheticCatalog(int foodCount) {
+            List<String> keys = new ArrayList<>(foodCount);
+            for (int i = 0; i < foodCount; i++) {
+                keys.add(String.format("%c%06d", KEY_LETTERS.charAt(i % KEY_LETTERS.length()), i / KEY_LETTERS.length()));
+            }
+            this.blsKeys = Collections.unmodifiableList(keys);
+            this.blsKeySet = new HashSet<>(keys);
+            List<Map.Entry<String, BLSNutrient>> nutrients = new ArrayList<>(BLSCrawler.getWebsiteNutrientMap().entrySet());
+            nutrients.sort(Comparator.comparing(entry -> entry.getValue().ordinal()));
+            for (int i = 0; i < TABLE_COUNT; i++) {
+                tables.add(nutrients.subList(i * nutrients.size() / TABLE_COUNT, (i + 1) * nutrients.size() / TABLE_COUNT));
+            }
+        }
+
+        @Override
+        public List<String> getBLSKeys() {
+            return blsKeys;
+        }
+
+        @Override
+        public String getPageName(String blsKey) {
+            return "Lebensmittel-" + blsKey + ".php";
+        }
+
+        @Override
+        public String getPage(String blsKey) {
+            return getPage(blsKey, "de", "Lebensmittel ");
+        }
+
+        @Override
+        public String getEnglishPage(String blsKey) {
+            return getPage(blsKey, "en", "Food ");
+        }
+
+        private String getPage(String blsKey, String language, String foodNamePrefix) {
+            if(!blsKeySet.contains(blsKey)) {
+                return null;
+            }
+            Random random = new Random(blsKey.hashCode());
+            StringBuilder page = new StringBuilder(1 << 14);
+            page.append("<!DOCTYPE html>\n<html lang=\"").append(language).append("\">\n<head>\n<meta charset=\"utf-8\">\n<title>").append(foodNamePrefix).append(blsKey).append("</title>\n</head>\n<body>\n");
+            page.append("<div class=\"container\" id=\"wrapper\">\n<h1>").append(foodNamePrefix).append(blsKey).append("</h1>\n");
+            for (List<Map.Entry<String, BLSNutrient>> table : tables) {
+                page.append("<table class=\"").append(FoodPageExtractor.NUTRIENT_TABLE_CLASS).append("\">\n");
+                page.append("<thead><tr><th>N&auml;hrstoff</th><th>Menge</th><th>Einheit</th></tr></thead>\n<tbody>\n");
+                for (Map.Entry<String, BLSNutrient> nutrient : table) {
+                    page.append("<tr><td>").append(nutrient.getKey()).append("</td><td>");
+                    if(random.nextInt(10) > 0) {
+                        page.append(String.format(Locale.GERMANY, "%.2f", random.nextDouble() * 100));
+                    }
+                    page.append("</td><td>").append(getUnit(nutrient.getValue(), random)).append("</td></tr>\n");
+                }
+                page.append("</tbody>\n</table>\n");
+            }
+            page.append("</div>\n</body>\n</html>\n");
+            return page.toString();
+        }
+
+        private static String getUnit(BLSNutrient nutrient, Random random) {
+            String unit = nutrient.getUnit();
+            if(unit != null && !unit.isEmpty()) {
+                return unit.split("/")[0];
+            }
+            return new String[]{"g", "mg", "µg"}[random.nextInt(3)];
+        }
+    }
+
+    /**
+     * Serves the pages of a previous crawl from its page cache.
+     */
+    private static class RecordedCatalog implements Catalog {
+        private final PageCache pageCache;
+        private final List<String> blsKeys = new ArrayList<>();
+        private final Map<String, String> pageNames = new HashMap<>();
+
+        private RecordedCatalog(PageCache pageCache) throws IOException {
+            this.pageCache = pageCache;
+            for (URL foodURL : pageCache.getFoodURLs()) {
+                String blsKey = BLSCrawler.getBLSKey(foodURL);
+                String path = foodURL.getPath();
+                blsKeys.add(blsKey);
+                pageNames.put(blsKey, path.substring(path.lastIndexOf('/') + 1));
+            }
+            Collections.sort(blsKeys);
+        }
+
+        @Override
+        public List<String> getBLSKeys() {
+            return blsKeys;
+        }
+
+        @Override
+        public String getPageName(String blsKey) {
+            return pageNames.get(blsKey);
+        }
+
+        @Override
+        public String getPage(String blsKey) throws IOException {
+            return (pageNames.containsKey(blsKey) ? pageCache.get(blsKey) : null);
+        }
+
+        /**
+         * @return <code>null</code>, the cache only holds German pages
+         */
+        @Override
+        public String getEnglishPage(String blsKey) {
+            return null;
+        }
+    }
+}
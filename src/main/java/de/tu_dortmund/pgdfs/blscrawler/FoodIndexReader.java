@@ -0,0 +1,104 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import java.io.*;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.Map;
+
+/**
+ * Reads the food URLs from the search results page while it is downloaded. Instead of building a DOM of the roughly
+ * 15.000 results, a small tokenizer scans the response for tags of class <code>list-group-item</code> inside
+ * <code>#wrapper</code> and emits their <code>href</code> immediately.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+class FoodIndexReader {
+    private static final String RESULT_CLASS = "list-group-item";
+    private static final String WRAPPER_ID = "wrapper";
+
+    private final Reader reader;
+    private final StringBuilder tag = new StringBuilder(256);
+    private boolean insideWrapper = false;
+
+    private FoodIndexReader(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Posts an empty search for all BLS foods to <code>requestURL</code> and streams the food URLs of the results.
+     *
+     * @return number of food URLs
+     */
+    static int streamFoodURLs(CrawlerHttpClient httpClient, String requestURL, FoodURLSource.Consumer consumer) throws IOException, InterruptedException {
+        String form = "nameInput=" + URLEncoder.encode("", "UTF-8") + "&origin=bls&language=de";
+        try (Reader reader = httpClient.postForm(new URL(requestURL), form)) {
+            return readFoodURLs(reader, consumer);
+        }
+    }
+
+    /**
+     * Streams the food URLs of an already downloaded search results page.
+     *
+     * @return number of food URLs
+     */
+    static int readFoodURLs(Reader reader, FoodURLSource.Consumer consumer) throws IOException, InterruptedException {
+        return new FoodIndexReader(reader).read(consumer);
+    }
+
+    private int read(FoodURLSource.Consumer consumer) throws IOException, InterruptedException {
+        char[] buffer = new char[1 << 14];
+        boolean insideTag = false;
+        int count = 0;
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            for (int i = 0; i < read; i++) {
+                char c = buffer[i];
+                if(insideTag) {
+                    if(c == '>') {
+                        insideTag = false;
+                        URL foodURL = handleTag();
+                        if(foodURL != null) {
+                            consumer.accept(foodURL);
+                            count++;
+                        }
+                    } else {
+                        tag.append(c);
+                    }
+                } else if(c == '<') {
+                    insideTag = true;
+                    tag.setLength(0);
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return food URL if the tag is a search result, <code>null</code> otherwise
+     */
+    private URL handleTag() throws MalformedURLException {
+        if(tag.length() == 0 || tag.charAt(0) == '/' || tag.charAt(0) == '!') {
+            return null;
+        }
+        Map<String, String> attributes = HtmlTags.parseAttributes(tag, 0, tag.length());
+        if(!insideWrapper) {
+            insideWrapper = WRAPPER_ID.equals(attributes.get("id"));
+            return null;
+        }
+        String classes = attributes.get("class");
+        if(classes == null || !containsClass(classes)) {
+            return null;
+        }
+        return new URL(attributes.getOrDefault("href", ""));
+    }
+
+    private static boolean containsClass(String classes) {
+        for (String className : classes.split("\\s+")) {
+            if(RESULT_CLASS.equals(className)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,239 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import java.io.IOException;
+
+/**
+ * Single-pass extractor for food pages, an alternative to building a Jsoup DOM. It scans the page once, collects the
+ * <code>h1</code> text and the name/amount/unit cells of the first seven nutrient tables inside <code>#wrapper</code>
+ * and stops as soon as the last nutrient table is closed. Cell texts are normalized like Jsoup's
+ * <code>Element.text()</code>, so both parsers produce the same rows.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+class FoodPageExtractor {
+    static final String NUTRIENT_TABLE_CLASS = "table table-condensed table-striped table-bordered";
+    static final int NUTRIENT_TABLE_COUNT = 7;
+    private static final String WRAPPER_ID = "wrapper";
+    private static final String[] WHITESPACE_TAGS = {"br", "p", "div", "li", "ul", "ol"};
+
+    interface Handler {
+        void foodName(String foodName);
+
+        /**
+         * @param unit text of the third cell, <code>null</code> if the row has only two cells
+         */
+        void nutrient(String websiteNutrientLongName, String nutrientAmount, String unit);
+    }
+
+    private final CharSequence page;
+    private final Handler handler;
+    private final boolean foodNameOnly;
+    private final StringBuilder text = new StringBuilder(64);
+    private final String[] cells = new String[3];
+    private int cellCount = 0;
+    private boolean capturingCell = false;
+    private boolean capturingFoodName = false;
+    private StringBuilder foodName = null;
+    private boolean foodNameReported = false;
+    private int tableCount = 0;
+    private int tableDepth = 0;
+
+    private FoodPageExtractor(CharSequence page, Handler handler, boolean foodNameOnly) {
+        this.page = page;
+        this.handler = handler;
+        this.foodNameOnly = foodNameOnly;
+    }
+
+    static void extract(CharSequence page, Handler handler) throws IOException {
+        new FoodPageExtractor(page, handler, false).extract();
+    }
+
+    /**
+     * @return <code>h1</code> text of the page, the scan stops at the first nutrient table
+     */
+    static String extractFoodName(CharSequence page) throws IOException {
+        String[] foodName = new String[1];
+        new FoodPageExtractor(page, new Handler() {
+            @Override
+            public void foodName(String name) {
+                foodName[0] = name;
+            }
+
+            @Override
+            public void nutrient(String websiteNutrientLongName, String nutrientAmount, String unit) {
+            }
+        }, true).extract();
+        return foodName[0];
+    }
+
+    private void extract() throws IOException {
+        int length = page.length();
+        int i = skipToWrapper();
+        while (i < length && tableCount <= NUTRIENT_TABLE_COUNT && !(foodNameOnly && foodNameReported)) {
+            char c = page.charAt(i);
+            if(c != '<') {
+                if(capturingCell || capturingFoodName) {
+                    text.append(c);
+                }
+                i++;
+            } else if(startsWith(i, "<!--")) {
+                int commentEnd = indexOf("-->", i + 4);
+                i = (commentEnd < 0 ? length : commentEnd + 3);
+            } else {
+                int tagEnd = findTagEnd(i + 1);
+                handleTag(i + 1, tagEnd);
+                if(tableCount == NUTRIENT_TABLE_COUNT && tableDepth == 0) {
+                    break;
+                }
+                i = tagEnd + 1;
+            }
+        }
+        if(!foodNameOnly && tableCount < NUTRIENT_TABLE_COUNT) {
+            throw new IOException("Expected " + NUTRIENT_TABLE_COUNT + " nutrient tables, found " + tableCount);
+        }
+        reportFoodName();
+    }
+
+    /**
+     * @return index after the opening tag of <code>#wrapper</code>
+     */
+    private int skipToWrapper() throws IOException {
+        int length = page.length();
+        int i = 0;
+        while (i < length) {
+            int tagStart = indexOf("<", i);
+            if(tagStart < 0) {
+                break;
+            }
+            int tagEnd = findTagEnd(tagStart + 1);
+            if(tagEnd - tagStart > 3 && page.charAt(tagStart + 1) != '/' && page.charAt(tagStart + 1) != '!'
+                    && WRAPPER_ID.equals(HtmlTags.parseAttributes(page, tagStart + 1, tagEnd).get("id"))) {
+                return tagEnd + 1;
+            }
+            i = tagEnd + 1;
+        }
+        throw new IOException("Page has no #" + WRAPPER_ID + " element");
+    }
+
+    private void handleTag(int start, int end) {
+        if(tableDepth == 0) {
+            if(HtmlTags.isTag(page, start, end, "h1", false)) {
+                capturingFoodName = true;
+                text.setLength(0);
+            } else if(HtmlTags.isTag(page, start, end, "h1", true)) {
+                endFoodName();
+            } else if(HtmlTags.isTag(page, start, end, "table", false)
+                    && NUTRIENT_TABLE_CLASS.equalsIgnoreCase(HtmlTags.parseAttributes(page, start, end).get("class"))) {
+                endFoodName();
+                reportFoodName();
+                tableDepth = 1;
+                tableCount++;
+            } else if(capturingFoodName && isWhitespaceTag(start, end)) {
+                text.append(' ');
+            }
+        } else if(HtmlTags.isTag(page, start, end, "table", false)) {
+            tableDepth++;
+        } else if(HtmlTags.isTag(page, start, end, "table", true)) {
+            if(--tableDepth == 0) {
+                endRow();
+            }
+        } else if(HtmlTags.isTag(page, start, end, "tr", false) || HtmlTags.isTag(page, start, end, "tr", true)) {
+            endRow();
+        } else if(HtmlTags.isTag(page, start, end, "td", false)) {
+            endCell();
+            capturingCell = true;
+            text.setLength(0);
+        } else if(HtmlTags.isTag(page, start, end, "td", true) || HtmlTags.isTag(page, start, end, "th", false) || HtmlTags.isTag(page, start, end, "th", true)) {
+            endCell();
+        } else if(capturingCell && isWhitespaceTag(start, end)) {
+            text.append(' ');
+        }
+    }
+
+    private boolean isWhitespaceTag(int start, int end) {
+        int nameStart = (page.charAt(start) == '/' ? start + 1 : start);
+        for (String whitespaceTag : WHITESPACE_TAGS) {
+            if(HtmlTags.isTag(page, nameStart, end, whitespaceTag, false)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void endFoodName() {
+        if(capturingFoodName) {
+            capturingFoodName = false;
+            if(foodName == null) {
+                foodName = new StringBuilder();
+            } else {
+                foodName.append(' ');
+            }
+            foodName.append(HtmlTags.normalizeText(text));
+        }
+    }
+
+    private void reportFoodName() {
+        if(!foodNameReported) {
+            foodNameReported = true;
+            handler.foodName(foodName != null ? HtmlTags.normalizeText(foodName) : "");
+        }
+    }
+
+    private void endCell() {
+        if(capturingCell) {
+            capturingCell = false;
+            if(cellCount < cells.length) {
+                cells[cellCount] = HtmlTags.normalizeText(text);
+            }
+            cellCount++;
+        }
+    }
+
+    private void endRow() {
+        endCell();
+        if(cellCount > 0) { //to filter out table rows which only contain th-elements
+            handler.nutrient(cells[0], (cellCount >= 2 ? cells[1] : ""), (cellCount >= 3 ? cells[2] : null));
+        }
+        cellCount = 0;
+    }
+
+    private int findTagEnd(int start) {
+        int length = page.length();
+        char quote = 0;
+        for (int i = start; i < length; i++) {
+            char c = page.charAt(i);
+            if(quote != 0) {
+                if(c == quote) {
+                    quote = 0;
+                }
+            } else if(c == '"' || c == '\'') {
+                quote = c;
+            } else if(c == '>') {
+                return i;
+            }
+        }
+        return length;
+    }
+
+    private boolean startsWith(int index, String prefix) {
+        if(index + prefix.length() > page.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if(page.charAt(index + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int indexOf(String str, int from) {
+        int last = page.length() - str.length();
+        for (int i = from; i <= last; i++) {
+            if(startsWith(i, str)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
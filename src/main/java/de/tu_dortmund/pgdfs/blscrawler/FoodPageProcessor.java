@@ -0,0 +1,26 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Turns the downloaded page of a food into a {@link FoodRecord}.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+@FunctionalInterface
+interface FoodPageProcessor {
+    /**
+     * @return values of the food, or <code>null</code> if the page was not modified since the last crawl
+     */
+    FoodRecord process(URL foodURL, FetchedPage page) throws IOException;
+
+    /**
+     * @return additional headers for the request of the given food page, e.g. to make it conditional
+     */
+    default Map<String, String> getRequestHeaders(URL foodURL) {
+        return Collections.emptyMap();
+    }
+}
@@ -0,0 +1,163 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Crawls the BLS for an application embedding the crawler and publishes the foods as {@link FoodRecord}s, read by
+ * {@link BLSNutrient}. The publisher is cold: every subscriber gets a crawl of its own on a separate thread, started
+ * when it subscribes. The crawl is driven by demand, rows that were not requested yet hold up writing and, once the
+ * queues are full, fetching, so a slow subscriber pauses the crawl instead of buffering the foods. Cancelling the
+ * subscription stops the crawl.
+ * <p>
+ * The options are those of the command line without an output file and the outputs, foods are published in
+ * completion order unless <code>--ordered</code> is given. The subscriber is completed once all foods were crawled,
+ * and signalled an error if some of them could not be crawled, after all others were published.
+ * <pre>
+ * FoodPublisher.create("--cache-dir=cache", "--ordered").writeSQLDump(Paths.get("bls.sql"), false).join();
+ * </pre>
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+public class FoodPublisher implements Publisher<FoodRecord> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FoodPublisher.class);
+
+    private final CrawlerOptions options;
+
+    private FoodPublisher(CrawlerOptions options) {
+        this.options = options;
+    }
+
+    /**
+     * @param options options of the command line like <code>--base-url=&lt;url&gt;</code>, without the outputs
+     * @throws IllegalArgumentException if an option is invalid or configures an output
+     */
+    public static FoodPublisher create(String... options) throws IllegalArgumentException {
+        return new FoodPublisher(CrawlerOptions.parseEmbedded(options));
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super FoodRecord> subscriber) {
+        Objects.requireNonNull(subscriber, "subscriber");
+        FoodSubscription subscription = new FoodSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        Thread crawlThread = new Thread(subscription::crawl, "bls-crawl");
+        crawlThread.start();
+    }
+
+    /**
+     * Subscribes a writer of an SQL file like the one of the command line.
+     *
+     * @return completed with <code>outputPath</code> once all foods are written, or exceptionally if the crawl or
+     * writing failed; the file is incomplete then
+     */
+    public CompletableFuture<Path> writeSQLDump(Path outputPath, boolean compressed) throws IOException {
+        RowWriterSubscriber subscriber = new RowWriterSubscriber(new SQLDumpWriter(outputPath, compressed, BLSCrawler.CREATE_TABLE_STATEMENT, options.getInsertChunkSize(), new CrawlMetrics()), options.getQueueCapacity());
+        subscribe(subscriber);
+        return subscriber.getResult().thenApply(ignored -> outputPath);
+    }
+
+    /**
+     * Subscription of a single crawl, handed the crawled rows as the writer of the crawl. Writing a row waits for
+     * demand, so the crawl thread is held up while the subscriber has not requested more foods.
+     */
+    private class FoodSubscription implements Subscription, FoodRowWriter {
+        private final Subscriber<? super FoodRecord> subscriber;
+        private long demand = 0;
+        private boolean cancelled = false;
+        private Throwable failure;
+
+        private FoodSubscription(Subscriber<? super FoodRecord> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public synchronized void request(long n) {
+            if(n <= 0) {
+                //rule 3.9 of reactive streams, signalled by the crawl thread
+                if(failure == null) {
+                    failure = new IllegalArgumentException("Requested " + n + " foods, must be positive");
+                }
+            } else {
+                demand = (demand + n < 0 ? Long.MAX_VALUE : demand + n);
+            }
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void cancel() {
+            cancelled = true;
+            notifyAll();
+        }
+
+        private void crawl() {
+            boolean completed = false;
+            Throwable error = null;
+            try (CrawlMetrics metrics = CrawlMetrics.start(options.getMetricsFile() != null ? Paths.get(options.getMetricsFile()) : null, options.getMetricsInterval())) {
+                completed = BLSCrawler.crawl(options, options.getShard(), null, this, metrics);
+                if(completed) {
+                    BLSCrawler.deleteJournal(options);
+                }
+            } catch (IOException | RuntimeException e) {
+                error = e;
+            }
+            synchronized (this) {
+                if(cancelled) {
+                    LOGGER.info("Crawl cancelled by subscriber");
+                    return;
+                }
+                if(failure != null) {
+                    error = failure;
+                }
+            }
+            if(error != null) {
+                subscriber.onError(error);
+            } else if(!completed) {
+                subscriber.onError(new IOException("Some foods could not be crawled, all others were published"));
+            } else {
+                subscriber.onComplete();
+            }
+        }
+
+        @Override
+        public void writeRow(String blsKey, FoodRecord record) throws IOException {
+            synchronized (this) {
+                while (demand == 0 && !cancelled && failure == null) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting for demand");
+                    }
+                }
+                if(cancelled || failure != null) {
+                    //stops the crawl, the subscriber is not signalled anything more
+                    throw new IOException("Subscription of the crawl ended");
+                }
+                demand--;
+            }
+            try {
+                subscriber.onNext(record);
+            } catch (RuntimeException e) {
+                //rule 2.13 of reactive streams, the subscription is considered cancelled
+                LOGGER.error("Subscriber failed, cancelling the crawl", e);
+                cancel();
+                throw new IOException("Subscriber failed", e);
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * Crawled values of a single food. The text columns are kept as strings, all other nutrients as primitive doubles
+ * indexed by {@link BLSNutrient#ordinal()}, with a bitset marking which of them are present. Missing nutrients are
+ * <code>NULL</code> in the generated SQL.
+ * <p>
+ * Records are handed to the subscribers of a {@link FoodPublisher}, which may read but not change them.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+public final class FoodRecord {
+    private static final BLSNutrient[] NUTRIENTS = BLSNutrient.values();
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+    static final String NULL_FIELD = "\\N";
+
+    private final String blsKey;
+    private String foodName;
+    private String englishFoodName;
+    private final double[] values = new double[NUTRIENTS.length];
+    private final long[] presentBits = new long[(NUTRIENTS.length + 63) / 64];
+
+    FoodRecord(String blsKey) {
+        this.blsKey = blsKey;
+    }
+
+    public String getBLSKey() {
+        return blsKey;
+    }
+
+    /**
+     * @return German name of the food (<code>ST</code>)
+     */
+    public String getFoodName() {
+        return foodName;
+    }
+
+    void setFoodName(String foodName) {
+        this.foodName = foodName;
+    }
+
+    /**
+     * @return English name of the food (<code>STE</code>), <code>null</code> unless crawled with <code>--english</code>
+     */
+    public String getEnglishFoodName() {
+        return englishFoodName;
+    }
+
+    void setEnglishFoodName(String englishFoodName) {
+        this.englishFoodName = englishFoodName;
+    }
+
+    /**
+     * @return whether the food lists a value for the nutrient or text column
+     */
+    public boolean has(BLSNutrient nutrient) {
+        return isText(nutrient) ? getText(nutrient) != null : (presentBits[nutrient.ordinal() >> 6] & (1L << nutrient.ordinal())) != 0;
+    }
+
+    /**
+     * @return amount of a numeric nutrient, <code>NaN</code> if it is missing
+     */
+    public double get(BLSNutrient nutrient) {
+        return has(nutrient) ? values[nutrient.ordinal()] : Double.NaN;
+    }
+
+    void set(BLSNutrient nutrient, double amount) {
+        if(isText(nutrient)) {
+            throw new IllegalArgumentException(nutrient + " is a text column");
+        }
+        values[nutrient.ordinal()] = amount;
+        presentBits[nutrient.ordinal() >> 6] |= 1L << nutrient.ordinal();
+    }
+
+    static boolean isText(BLSNutrient nutrient) {
+        return nutrient == BLSNutrient.BLS_SCHLUESSEL || nutrient == BLSNutrient.TEXT || nutrient == BLSNutrient.TEXT_ENGLISCH;
+    }
+
+    private String getText(BLSNutrient nutrient) {
+        switch (nutrient) {
+            case BLS_SCHLUESSEL:
+                return blsKey;
+            case TEXT:
+                return foodName;
+            default:
+                return englishFoodName;
+        }
+    }
+
+    /**
+     * Parses an amount as shown on the website, e.g. <code>0,3</code>, and multiplies it by
+     * <code>10^exponentShift</code> to convert it to another unit. The result is the double closest to the exact
+     * decimal value, like {@link Double#parseDouble(String)} would return it.
+     */
+    static double parseAmount(CharSequence amount, int exponentShift) {
+        long mantissa = 0;
+        int exponent = exponentShift;
+        int digits = 0;
+        boolean sawDigit = false;
+        boolean negative = false;
+        boolean fraction = false;
+        int length = amount.length();
+        for (int i = 0; i < length; i++) {
+            char c = amount.charAt(i);
+            if(c >= '0' && c <= '9') {
+                sawDigit = true;
+                if(mantissa != 0 || c != '0') {
+                    digits++;
+                }
+                if(digits > 15) {
+                    return parseAmountSlowly(amount, exponentShift);
+                }
+                mantissa = mantissa * 10 + (c - '0');
+                if(fraction) {
+                    exponent--;
+                }
+            } else if((c == ',' || c == '.') && !fraction) {
+                fraction = true;
+            } else if(c == '-' && i == 0) {
+                negative = true;
+            } else {
+                return parseAmountSlowly(amount, exponentShift);
+            }
+        }
+        if(!sawDigit) {
+            throw new NumberFormatException("Not a number: \"" + amount + "\"");
+        }
+        //both operands are exact, so a single multiplication or division is correctly rounded
+        double value;
+        if(exponent >= 0 && exponent < POWERS_OF_TEN.length) {
+            value = mantissa * POWERS_OF_TEN[exponent];
+        } else if(exponent < 0 && -exponent < POWERS_OF_TEN.length) {
+            value = mantissa / POWERS_OF_TEN[-exponent];
+        } else {
+            return parseAmountSlowly(amount, exponentShift);
+        }
+        return (negative ? -value : value);
+    }
+
+    private static double parseAmountSlowly(CharSequence amount, int exponentShift) {
+        return Double.parseDouble(amount.toString().replace(',', '.') + "E" + exponentShift);
+    }
+
+    /**
+     * Appends the SQL value list of this food, e.g. <code>('B100000', 'Brot', NULL, 250.0, ...)</code>.
+     */
+    void appendValueList(StringBuilder valueList) {
+        valueList.append('(');
+        for (int i = 0; i < NUTRIENTS.length; i++) {
+            if(i > 0) {
+                valueList.append(", ");
+            }
+            BLSNutrient nutrient = NUTRIENTS[i];
+            if(!has(nutrient)) {
+                valueList.append("NULL");
+            } else if(isText(nutrient)) {
+                appendSQLString(valueList, getText(nutrient));
+            } else {
+                valueList.append(values[i]);
+            }
+        }
+        valueList.append(')');
+    }
+
+    /**
+     * Binds the values of this food to the parameters <code>1</code> to <code>n</code> of a statement, in the order of
+     * {@link BLSNutrient}.
+     */
+    void setParameters(PreparedStatement statement) throws SQLException {
+        for (int i = 0; i < NUTRIENTS.length; i++) {
+            BLSNutrient nutrient = NUTRIENTS[i];
+            if(isText(nutrient)) {
+                statement.setString(i + 1, getText(nutrient));
+            } else if(has(nutrient)) {
+                statement.setDouble(i + 1, values[i]);
+            } else {
+                statement.setNull(i + 1, Types.DOUBLE);
+            }
+        }
+    }
+
+    String toValueList() {
+        StringBuilder valueList = new StringBuilder(NUTRIENTS.length * 8);
+        appendValueList(valueList);
+        return valueList.toString();
+    }
+
+    private static void appendSQLString(StringBuilder sql, String str) {
+        sql.append('\'');
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if(c == '\'' || c == '\\') {
+                sql.append(c);
+            }
+            sql.append(c);
+        }
+        sql.append('\'');
+    }
+
+    /**
+     * Appends this food as a single line of tab separated fields in column order, without line terminator. Missing
+     * values are written as <code>\N</code>, backslashes, tabs and line breaks in texts are escaped with a backslash.
+     */
+    void appendLine(StringBuilder line) {
+        for (int i = 0; i < NUTRIENTS.length; i++) {
+            if(i > 0) {
+                line.append('\t');
+            }
+            BLSNutrient nutrient = NUTRIENTS[i];
+            if(!has(nutrient)) {
+                line.append(NULL_FIELD);
+            } else if(isText(nutrient)) {
+                appendEscapedField(line, getText(nutrient));
+            } else {
+                line.append(values[i]);
+            }
+        }
+    }
+
+    /**
+     * Appends this food as a single line of comma separated fields in column order, without line terminator. Texts are
+     * enclosed in double quotes, which are doubled inside. Missing values are written as <code>\N</code>, backslashes
+     * and line breaks in texts are escaped with a backslash, as expected by <code>LOAD DATA</code>.
+     */
+    void appendCSVLine(StringBuilder line) {
+        for (int i = 0; i < NUTRIENTS.length; i++) {
+            if(i > 0) {
+                line.append(',');
+            }
+            BLSNutrient nutrient = NUTRIENTS[i];
+            if(!has(nutrient)) {
+                line.append(NULL_FIELD);
+            } else if(isText(nutrient)) {
+                appendQuotedField(line, getText(nutrient));
+            } else {
+                line.append(values[i]);
+            }
+        }
+    }
+
+    String toLine() {
+        StringBuilder line = new StringBuilder(NUTRIENTS.length * 8);
+        appendLine(line);
+        return line.toString();
+    }
+
+    private static void appendEscapedField(StringBuilder line, String str) {
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            switch (c) {
+                case '\\':
+                    line.append("\\\\");
+                    break;
+                case '\t':
+                    line.append("\\t");
+                    break;
+                case '\n':
+                    line.append("\\n");
+                    break;
+                case '\r':
+                    line.append("\\r");
+                    break;
+                default:
+                    line.append(c);
+            }
+        }
+    }
+
+    private static void appendQuotedField(StringBuilder line, String str) {
+        line.append('"');
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            switch (c) {
+                case '"':
+                    line.append("\"\"");
+                    break;
+                case '\\':
+                    line.append("\\\\");
+                    break;
+                case '\n':
+                    line.append("\\n");
+                    break;
+                case '\r':
+                    line.append("\\r");
+                    break;
+                default:
+                    line.append(c);
+            }
+        }
+        line.append('"');
+    }
+
+    /**
+     * Reads a food written by {@link #appendLine(StringBuilder)}.
+     */
+    static FoodRecord parseLine(String line) {
+        String[] fields = line.split("\t", -1);
+        if(fields.length != NUTRIENTS.length) {
+            throw new IllegalArgumentException("Expected " + NUTRIENTS.length + " fields, got " + fields.length);
+        }
+        FoodRecord record = new FoodRecord(unescapeField(fields[BLSNutrient.BLS_SCHLUESSEL.ordinal()]));
+        record.setFoodName(unescapeField(fields[BLSNutrient.TEXT.ordinal()]));
+        record.setEnglishFoodName(unescapeField(fields[BLSNutrient.TEXT_ENGLISCH.ordinal()]));
+        for (int i = 0; i < NUTRIENTS.length; i++) {
+            if(!isText(NUTRIENTS[i]) && !fields[i].equals(NULL_FIELD)) {
+                record.set(NUTRIENTS[i], Double.parseDouble(fields[i]));
+            }
+        }
+        return record;
+    }
+
+    private static String unescapeField(String field) {
+        if(field.equals(NULL_FIELD)) {
+            return null;
+        }
+        if(field.indexOf('\\') < 0) {
+            return field;
+        }
+        StringBuilder unescaped = new StringBuilder(field.length());
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if(c == '\\' && i + 1 < field.length()) {
+                char next = field.charAt(++i);
+                unescaped.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                unescaped.append(c);
+            }
+        }
+        return unescaped.toString();
+    }
+}
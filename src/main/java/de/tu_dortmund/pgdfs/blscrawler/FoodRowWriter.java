@@ -0,0 +1,22 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Destination of crawled foods.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+interface FoodRowWriter extends Closeable {
+    /**
+     * @param record values of the food, or <code>null</code> if the food did not change since the last crawl
+     */
+    void writeRow(String blsKey, FoodRecord record) throws IOException;
+
+    /**
+     * Called once all foods have been written successfully, before {@link #close()}.
+     */
+    default void complete() throws IOException {
+    }
+}
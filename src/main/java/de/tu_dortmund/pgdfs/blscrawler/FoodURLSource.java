@@ -0,0 +1,22 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * Supplies the URLs of the food pages to crawl, possibly while they are still being downloaded.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+@FunctionalInterface
+interface FoodURLSource {
+    /**
+     * Passes every food URL to <code>consumer</code> as soon as it is known.
+     */
+    void forEach(Consumer consumer) throws IOException, InterruptedException;
+
+    @FunctionalInterface
+    interface Consumer {
+        void accept(URL foodURL) throws InterruptedException;
+    }
+}
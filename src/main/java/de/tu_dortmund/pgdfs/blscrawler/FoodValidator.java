@@ -0,0 +1,242 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Derives the columns the BLS website does not list and checks the crawled values. The derived columns only depend on
+ * the food itself and are filled {@link #derive(FoodRecord) row by row}. The checks run on a chunk of up to
+ * {@value #CHUNK_SIZE} foods with one <code>double[]</code> per nutrient (<code>NaN</code> if missing) instead of row
+ * by row, each rule is a loop over the columns it reads, so chunks can be checked on other cores while the crawl goes
+ * on.
+ * <p>
+ * Derived columns, only filled where the crawl left them empty and at least one input is present:
+ * <ul>
+ * <li><code>GCALZB</code> = <code>GCAL</code> + 2 kcal per g of fibre (<code>ZB</code>), <code>GJZB</code> =
+ * <code>GJ</code> + 8 kJ per g of fibre</li>
+ * <li><code>FO3</code> = sum of the omega-3 fatty acids 18:3, 18:4, 20:5, 22:5 and 22:6, <code>FO6</code> = sum of the
+ * omega-6 fatty acids 18:2, 20:2, 20:3, 20:4, 22:2 and 22:4; fatty acids whose series the BLS does not give are left
+ * out</li>
+ * <li><code>EP</code> = uric acid (<code>EH</code>) / 2.4, the usual conversion of purines to the uric acid they form</li>
+ * </ul>
+ * Checks: numeric values are not negative and amounts per 100 g do not exceed 100 g, kJ match kcal, the saturated,
+ * mono- and polyunsaturated fatty acids do not exceed the fat, and the BLS key matches the <code>CHECK</code> of
+ * <code>SBLS</code>. Rows violating the latter would be rejected by the database and are marked as rejected.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+class FoodValidator {
+    private static final BLSNutrient[] NUTRIENTS = BLSNutrient.values();
+    static final int CHUNK_SIZE = 1024;
+    private static final String MASS_UNIT = "mg/100 g";
+    private static final double MAX_MASS = 100000; //100 g per 100 g
+    private static final double KJ_PER_KCAL = 4.184;
+    private static final double KCAL_PER_G_FIBRE = 2;
+    private static final double KJ_PER_G_FIBRE = 8;
+    private static final double URIC_ACID_PER_PURINE = 2.4;
+    private static final double ROUNDING_SCALE = 1e6;
+    //values are rounded on the website
+    private static final double ENERGY_TOLERANCE = 0.02;
+    private static final double MIN_ENERGY_TOLERANCE_KJ = 2;
+    private static final double FATTY_ACID_TOLERANCE = 0.01;
+    private static final double MIN_FATTY_ACID_TOLERANCE = 10;
+    //same as the CHECK of SBLS in the table definition
+    private static final Pattern BLS_KEY_PATTERN = Pattern.compile("^[a-zA-Z][0-9][0-9a-zA-Z]{2}[0-9]{3}$");
+
+    private static final BLSNutrient[] OMEGA_3_FATTY_ACIDS = {BLSNutrient.OCTADECATRIENSAEURE_LINOLENSAEURE,
+            BLSNutrient.OCTADECATETRAENSAEURE_STEARIDONSAEURE, BLSNutrient.EICOSAPENTAENSAEURE,
+            BLSNutrient.DOCOSAPENTAENSAEURE, BLSNutrient.DOCOSAHEXAENSAEURE};
+    private static final BLSNutrient[] OMEGA_6_FATTY_ACIDS = {BLSNutrient.OCTADECADIENSAEURE_LINOLSAEURE,
+            BLSNutrient.EICOSADIENSAEURE, BLSNutrient.EICOSATRIENSAEURE, BLSNutrient.EICOSATETRAENSAEURE_ARACHIDONSAEURE,
+            BLSNutrient.DOCOSADIENSAEURE, BLSNutrient.DOCOSATETRAENSAEURE};
+    private static final BLSNutrient[] FATTY_ACIDS = {BLSNutrient.GESAETTIGTE_FETTSAEUREN,
+            BLSNutrient.EINFACH_UNGESAETTIGTE_FETTSAEUREN, BLSNutrient.MEHRFACH_UNGESAETTIGTE_FETTSAEUREN};
+
+    private final int firstRow;
+    private int rowCount = 0;
+    private final String[] blsKeys = new String[CHUNK_SIZE];
+    private final double[][] columns = new double[NUTRIENTS.length][];
+
+    /**
+     * @param firstRow number of the first row of the chunk within the crawl, rows of violations count from there
+     */
+    FoodValidator(int firstRow) {
+        this.firstRow = firstRow;
+        for (BLSNutrient nutrient : NUTRIENTS) {
+            if(!FoodRecord.isText(nutrient)) {
+                columns[nutrient.ordinal()] = new double[CHUNK_SIZE];
+            }
+        }
+    }
+
+    /**
+     * Copies the values of a food into the next row of the chunk.
+     */
+    void add(FoodRecord record) {
+        if(isFull()) {
+            throw new IllegalStateException("Chunk of rows " + firstRow + " to " + (firstRow + CHUNK_SIZE - 1) + " is full");
+        }
+        blsKeys[rowCount] = record.getBLSKey();
+        for (BLSNutrient nutrient : NUTRIENTS) {
+            double[] column = columns[nutrient.ordinal()];
+            if(column != null) {
+                column[rowCount] = record.get(nutrient);
+            }
+        }
+        rowCount++;
+    }
+
+    boolean isFull() {
+        return rowCount == CHUNK_SIZE;
+    }
+
+    int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return whether the database accepts the BLS key
+     */
+    static boolean isValidBLSKey(String blsKey) {
+        return BLS_KEY_PATTERN.matcher(blsKey).matches();
+    }
+
+    /**
+     * Fills the derived columns of a food.
+     */
+    static void derive(FoodRecord record) {
+        deriveWithFibre(record, BLSNutrient.ENERGIE_INKL_BALLASTSTOFFE_KILOKALORIEN, BLSNutrient.ENERGIE_KILOKALORIEN, KCAL_PER_G_FIBRE);
+        deriveWithFibre(record, BLSNutrient.ENERGIE_INKL_BALLASTSTOFFE_KILOJOULE, BLSNutrient.ENERGIE_KILOJOULE, KJ_PER_G_FIBRE);
+        deriveSum(record, BLSNutrient.OMEGA_3_FETTSAEUREN, OMEGA_3_FATTY_ACIDS);
+        deriveSum(record, BLSNutrient.OMEGA_6_FETTSAEUREN, OMEGA_6_FATTY_ACIDS);
+        if(!record.has(BLSNutrient.PURIN) && record.has(BLSNutrient.HARNSAEURE)) {
+            setRoundedOff(record, BLSNutrient.PURIN, record.get(BLSNutrient.HARNSAEURE) / URIC_ACID_PER_PURINE);
+        }
+    }
+
+    /**
+     * Drops the binary rounding errors of the arithmetic, e.g. <code>93.76552000000001</code>, from the SQL.
+     */
+    private static void setRoundedOff(FoodRecord record, BLSNutrient nutrient, double value) {
+        record.set(nutrient, Math.round(value * ROUNDING_SCALE) / ROUNDING_SCALE);
+    }
+
+    private static void deriveWithFibre(FoodRecord record, BLSNutrient target, BLSNutrient energy, double energyPerGram) {
+        if(!record.has(target) && record.has(energy)) {
+            //no fibre listed counts as none
+            double fibre = record.get(BLSNutrient.BALLASTSTOFFE);
+            setRoundedOff(record, target, record.get(energy) + (Double.isNaN(fibre) ? 0 : fibre / 1000 * energyPerGram));
+        }
+    }
+
+    private static void deriveSum(FoodRecord record, BLSNutrient target, BLSNutrient[] parts) {
+        if(record.has(target)) {
+            return;
+        }
+        double sum = 0;
+        boolean derived = false;
+        for (BLSNutrient part : parts) {
+            if(record.has(part)) {
+                sum += record.get(part);
+                derived = true;
+            }
+        }
+        if(derived) {
+            setRoundedOff(record, target, sum);
+        }
+    }
+
+    /**
+     * @return violations of the rows of the chunk, ordered by row
+     */
+    List<Violation> check() {
+        List<Violation> violations = new ArrayList<>();
+        checkBLSKeys(violations);
+        checkRanges(violations);
+        checkEnergy(violations);
+        checkFattyAcids(violations);
+        violations.sort(Comparator.comparingInt(violation -> violation.row));
+        return violations;
+    }
+
+    private void checkBLSKeys(List<Violation> violations) {
+        for (int row = 0; row < rowCount; row++) {
+            if(!isValidBLSKey(blsKeys[row])) {
+                violations.add(new Violation(firstRow + row, blsKeys[row], "SBLS", "BLS key does not match " + BLS_KEY_PATTERN.pattern(), true));
+            }
+        }
+    }
+
+    private void checkRanges(List<Violation> violations) {
+        for (BLSNutrient nutrient : NUTRIENTS) {
+            double[] column = columns[nutrient.ordinal()];
+            if(column == null) {
+                continue;
+            }
+            double max = (MASS_UNIT.equals(nutrient.getUnit()) ? MAX_MASS : Double.POSITIVE_INFINITY);
+            for (int row = 0; row < rowCount; row++) {
+                //false for NaN
+                if(column[row] < 0 || column[row] > max) {
+                    violations.add(new Violation(firstRow + row, blsKeys[row], nutrient.getTableColumnName(), column[row] + " " + nutrient.getUnit() + " out of range", false));
+                }
+            }
+        }
+    }
+
+    private void checkEnergy(List<Violation> violations) {
+        double[] kcalColumn = columns[BLSNutrient.ENERGIE_KILOKALORIEN.ordinal()];
+        double[] kJColumn = columns[BLSNutrient.ENERGIE_KILOJOULE.ordinal()];
+        for (int row = 0; row < rowCount; row++) {
+            double expectedKJ = kcalColumn[row] * KJ_PER_KCAL;
+            if(Math.abs(kJColumn[row] - expectedKJ) > Math.max(MIN_ENERGY_TOLERANCE_KJ, expectedKJ * ENERGY_TOLERANCE)) {
+                violations.add(new Violation(firstRow + row, blsKeys[row], "GJ", kJColumn[row] + " kJ do not match " + kcalColumn[row] + " kcal", false));
+            }
+        }
+    }
+
+    private void checkFattyAcids(List<Violation> violations) {
+        double[] fatColumn = columns[BLSNutrient.FETT.ordinal()];
+        double[] sum = new double[rowCount];
+        for (BLSNutrient fattyAcid : FATTY_ACIDS) {
+            double[] column = columns[fattyAcid.ordinal()];
+            for (int row = 0; row < rowCount; row++) {
+                if(!Double.isNaN(column[row])) {
+                    sum[row] += column[row];
+                }
+            }
+        }
+        for (int row = 0; row < rowCount; row++) {
+            double fat = fatColumn[row];
+            if(sum[row] > fat + Math.max(MIN_FATTY_ACID_TOLERANCE, fat * FATTY_ACID_TOLERANCE)) {
+                violations.add(new Violation(firstRow + row, blsKeys[row], "ZF", "fatty acids of " + sum[row] + " mg exceed " + fat + " mg fat", false));
+            }
+        }
+    }
+
+    /**
+     * A food breaking a rule.
+     */
+    static class Violation {
+        final int row;
+        final String blsKey;
+        /**
+         * table column name of the checked value
+         */
+        final String column;
+        final String message;
+        /**
+         * whether the database would reject the row
+         */
+        final boolean rejected;
+
+        private Violation(int row, String blsKey, String column, String message, boolean rejected) {
+            this.row = row;
+            this.blsKey = blsKey;
+            this.column = column;
+            this.message = message;
+            this.rejected = rejected;
+        }
+    }
+}
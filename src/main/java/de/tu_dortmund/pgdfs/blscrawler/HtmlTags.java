@@ -0,0 +1,129 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import org.jsoup.parser.Parser;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Helpers for the hand-written HTML scanners, which look at single tags instead of building a DOM. A tag is given as
+ * the characters between <code>&lt;</code> and <code>&gt;</code>.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+final class HtmlTags {
+    private HtmlTags() {
+    }
+
+    /**
+     * @return whether the tag in <code>html[start, end)</code> is an opening or (with <code>closing</code>) closing tag
+     * with the given lower case name
+     */
+    static boolean isTag(CharSequence html, int start, int end, String name, boolean closing) {
+        int i = start;
+        if(closing) {
+            if(i >= end || html.charAt(i) != '/') {
+                return false;
+            }
+            i++;
+        }
+        int length = name.length();
+        if(end - i < length) {
+            return false;
+        }
+        for (int j = 0; j < length; j++) {
+            if(Character.toLowerCase(html.charAt(i + j)) != name.charAt(j)) {
+                return false;
+            }
+        }
+        return (i + length == end || isTagNameEnd(html.charAt(i + length)));
+    }
+
+    private static boolean isTagNameEnd(char c) {
+        return Character.isWhitespace(c) || c == '/' || c == '>';
+    }
+
+    /**
+     * @return attributes of the tag in <code>html[start, end)</code> with lower case names and decoded values
+     */
+    static Map<String, String> parseAttributes(CharSequence html, int start, int end) {
+        Map<String, String> attributes = new HashMap<>();
+        int i = start;
+        //skip tag name
+        while (i < end && !Character.isWhitespace(html.charAt(i))) {
+            i++;
+        }
+        while (i < end) {
+            while (i < end && (Character.isWhitespace(html.charAt(i)) || html.charAt(i) == '/')) {
+                i++;
+            }
+            int nameStart = i;
+            while (i < end && html.charAt(i) != '=' && !Character.isWhitespace(html.charAt(i))) {
+                i++;
+            }
+            String name = html.subSequence(nameStart, i).toString().toLowerCase();
+            while (i < end && Character.isWhitespace(html.charAt(i))) {
+                i++;
+            }
+            String value = "";
+            if(i < end && html.charAt(i) == '=') {
+                i++;
+                while (i < end && Character.isWhitespace(html.charAt(i))) {
+                    i++;
+                }
+                if(i < end && (html.charAt(i) == '"' || html.charAt(i) == '\'')) {
+                    char quote = html.charAt(i++);
+                    int valueStart = i;
+                    while (i < end && html.charAt(i) != quote) {
+                        i++;
+                    }
+                    value = html.subSequence(valueStart, i).toString();
+                    i++;
+                } else {
+                    int valueStart = i;
+                    while (i < end && !Character.isWhitespace(html.charAt(i))) {
+                        i++;
+                    }
+                    value = html.subSequence(valueStart, i).toString();
+                }
+            }
+            if(!name.isEmpty() && !attributes.containsKey(name)) {
+                attributes.put(name, Parser.unescapeEntities(value, true));
+            }
+        }
+        return attributes;
+    }
+
+    /**
+     * Turns raw text between tags into what Jsoup's <code>Element.text()</code> returns: entities decoded, runs of
+     * whitespace collapsed into a single space, leading and trailing whitespace removed.
+     */
+    static String normalizeText(CharSequence rawText) {
+        String text = rawText.toString();
+        if(text.indexOf('&') >= 0) {
+            text = Parser.unescapeEntities(text, false);
+        }
+        StringBuilder normalized = new StringBuilder(text.length());
+        boolean lastWasWhitespace = true; //strips leading whitespace
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if(isWhitespace(c)) {
+                if(!lastWasWhitespace) {
+                    normalized.append(' ');
+                    lastWasWhitespace = true;
+                }
+            } else {
+                normalized.append(c);
+                lastWasWhitespace = false;
+            }
+        }
+        if(normalized.length() > 0 && lastWasWhitespace) {
+            normalized.setLength(normalized.length() - 1);
+        }
+        return normalized.toString();
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\f' || c == '\r';
+    }
+}
@@ -0,0 +1,181 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.*;
+
+/**
+ * Loads the crawled foods straight into a database instead of a SQL file. Rows are inserted into the staging table
+ * <code>food_staging</code> in batches of prepared statements while the crawl is still running, and
+ * {@link #complete()} swaps it with the live table <code>food</code> by a single atomic <code>RENAME TABLE</code>. An
+ * incomplete crawl never touches <code>food</code>, readers see either the previous or the new foods.
+ * <p>
+ * Foods that did not change since the last crawl are copied from the live table. The statements are written for
+ * MariaDB, e.g. <code>jdbc:mariadb://localhost/foodscout?user=crawler&amp;rewriteBatchedStatements=true</code>, the
+ * last parameter sends each batch as one multi-row <code>INSERT</code>.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+class JDBCRowWriter implements FoodRowWriter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(JDBCRowWriter.class);
+    static final String TABLE = "food";
+    static final String STAGING_TABLE = "food_staging";
+    static final String PREVIOUS_TABLE = "food_previous";
+
+    private final Connection connection;
+    private final PreparedStatement insertStatement;
+    private final PreparedStatement copyStatement;
+    private final int batchSize;
+    private final CrawlMetrics metrics;
+    private int insertBatchRows = 0;
+    private int copyBatchRows = 0;
+    private int insertedRows = 0;
+    private int copiedRows = 0;
+    private boolean completed = false;
+
+    /**
+     * @param tableDefinition column definitions and table options of the food table, as used in
+     *                        <code>CREATE TABLE food ...</code>
+     */
+    JDBCRowWriter(String url, String tableDefinition, int batchSize, CrawlMetrics metrics) throws IOException {
+        if(batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive, got " + batchSize);
+        }
+        this.batchSize = batchSize;
+        this.metrics = metrics;
+        String columns = buildColumnList();
+        try {
+            this.connection = DriverManager.getConnection(url);
+        } catch (SQLException e) {
+            throw new IOException("Could not connect to " + url, e);
+        }
+        try {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE OR REPLACE TABLE " + STAGING_TABLE + " " + tableDefinition);
+            }
+            //DDL commits implicitly, so the staging table is created before the rows are loaded in transactions
+            connection.setAutoCommit(false);
+            StringBuilder parameters = new StringBuilder("?");
+            for (int i = 1; i < BLSNutrient.values().length; i++) {
+                parameters.append(", ?");
+            }
+            this.insertStatement = connection.prepareStatement("INSERT INTO " + STAGING_TABLE + "(" + columns + ") VALUES (" + parameters + ")");
+            this.copyStatement = connection.prepareStatement("INSERT INTO " + STAGING_TABLE + "(" + columns + ") SELECT " + columns + " FROM " + TABLE + " WHERE " + BLSNutrient.BLS_SCHLUESSEL.getTableColumnName() + " = ?");
+        } catch (SQLException e) {
+            closeConnection();
+            throw new IOException("Could not prepare staging table " + STAGING_TABLE, e);
+        }
+    }
+
+    private static String buildColumnList() {
+        StringBuilder columns = new StringBuilder();
+        for (BLSNutrient blsNutrient : BLSNutrient.values()) {
+            if(columns.length() > 0) {
+                columns.append(", ");
+            }
+            columns.append(blsNutrient.getTableColumnName());
+        }
+        return columns.toString();
+    }
+
+    @Override
+    public void writeRow(String blsKey, FoodRecord record) throws IOException {
+        long startNanos = System.nanoTime();
+        try {
+            if(record == null) {
+                copyStatement.setString(1, blsKey);
+                copyStatement.addBatch();
+                long serializedNanos = metrics.record(CrawlMetrics.Stage.SERIALIZE, startNanos);
+                if(++copyBatchRows == batchSize) {
+                    executeCopyBatch();
+                }
+                metrics.record(CrawlMetrics.Stage.WRITE, serializedNanos);
+            } else {
+                record.setParameters(insertStatement);
+                insertStatement.addBatch();
+                long serializedNanos = metrics.record(CrawlMetrics.Stage.SERIALIZE, startNanos);
+                if(++insertBatchRows == batchSize) {
+                    executeInsertBatch();
+                }
+                metrics.record(CrawlMetrics.Stage.WRITE, serializedNanos);
+            }
+        } catch (SQLException e) {
+            throw new IOException("Could not load " + blsKey + " into " + STAGING_TABLE, e);
+        }
+    }
+
+    private void executeInsertBatch() throws SQLException {
+        if(insertBatchRows > 0) {
+            insertStatement.executeBatch();
+            connection.commit();
+            insertedRows += insertBatchRows;
+            insertBatchRows = 0;
+        }
+    }
+
+    private void executeCopyBatch() throws SQLException {
+        if(copyBatchRows > 0) {
+            int[] updateCounts = copyStatement.executeBatch();
+            for (int updateCount : updateCounts) {
+                //drivers may not know the count of each statement of a batch
+                if(updateCount == 0) {
+                    throw new SQLException("Food reported as not modified, but it is missing in table " + TABLE);
+                }
+            }
+            connection.commit();
+            copiedRows += copyBatchRows;
+            copyBatchRows = 0;
+        }
+    }
+
+    /**
+     * Loads the remaining rows and replaces the live table by the staging table. The previous foods are dropped
+     * afterwards.
+     */
+    @Override
+    public void complete() throws IOException {
+        try {
+            executeInsertBatch();
+            executeCopyBatch();
+            connection.setAutoCommit(true);
+            try (Statement statement = connection.createStatement()) {
+                //the first load has nothing to swap with
+                statement.execute("CREATE TABLE IF NOT EXISTS " + TABLE + " LIKE " + STAGING_TABLE);
+                statement.execute("DROP TABLE IF EXISTS " + PREVIOUS_TABLE);
+                statement.execute("RENAME TABLE " + TABLE + " TO " + PREVIOUS_TABLE + ", " + STAGING_TABLE + " TO " + TABLE);
+                statement.execute("DROP TABLE " + PREVIOUS_TABLE);
+            }
+            completed = true;
+        } catch (SQLException e) {
+            throw new IOException("Could not replace table " + TABLE + " by " + STAGING_TABLE, e);
+        }
+        LOGGER.info("Loaded " + (insertedRows + copiedRows) + " foods into table " + TABLE + ", " + copiedRows + " of them unchanged");
+    }
+
+    /**
+     * Rolls back rows not loaded yet if {@link #complete()} was not called. The staging table is kept for inspection
+     * and replaced by the next load.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if(!completed && !connection.getAutoCommit()) {
+                connection.rollback();
+            }
+        } catch (SQLException e) {
+            LOGGER.warn("Could not roll back loading into " + STAGING_TABLE, e);
+        } finally {
+            closeConnection();
+        }
+    }
+
+    private void closeConnection() throws IOException {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            throw new IOException("Could not close database connection", e);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hands every food to several writers, e.g. the SQL dump and a {@link ColumnarSnapshot}.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+class MultiRowWriter implements FoodRowWriter {
+    private final List<FoodRowWriter> writers;
+
+    MultiRowWriter(List<FoodRowWriter> writers) {
+        this.writers = new ArrayList<>(writers);
+    }
+
+    /**
+     * @return the only writer, or a writer handing rows to all of them
+     */
+    static FoodRowWriter of(List<FoodRowWriter> writers) {
+        return (writers.size() == 1 ? writers.get(0) : new MultiRowWriter(writers));
+    }
+
+    @Override
+    public void writeRow(String blsKey, FoodRecord record) throws IOException {
+        for (FoodRowWriter writer : writers) {
+            writer.writeRow(blsKey, record);
+        }
+    }
+
+    @Override
+    public void complete() throws IOException {
+        for (FoodRowWriter writer : writers) {
+            writer.complete();
+        }
+    }
+
+    /**
+     * Closes all writers, even if some of them fail.
+     */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (FoodRowWriter writer : writers) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                if(failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if(failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,473 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * In-memory query index over crawled foods, for callers that need many nutrient queries per second and should not go
+ * through SQL for each of them. Answers range filters, top-k and similarity queries on primitive arrays:
+ * <pre>
+ * NutrientIndex index = NutrientIndex.of(ColumnarSnapshot.open(path));
+ * int[] lean = index.filter(NutrientIndex.greaterThan(BLSNutrient.EIWEISS_PROTEIN, 20000),
+ *                           NutrientIndex.lessThan(BLSNutrient.FETT, 5000));
+ * int[] vitaminC = index.top(BLSNutrient.VITAMIN_C_ASCORBINSAEURE, 50);
+ * </pre>
+ * Foods are identified by their row, rows are sorted by BLS key. Amounts are in the unit of
+ * {@link BLSNutrient#getUnit()}, so 20 g protein are <code>20000</code> mg. Foods without a value for a nutrient never
+ * match a range of that nutrient and are not ranked by it.
+ * <p>
+ * Values are copied into one array per nutrient. The sorted index of a nutrient is built on its first query, so an
+ * index can be created quickly and only pays for the nutrients it is asked about. Instances are thread-safe.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+public class NutrientIndex {
+    private static final BLSNutrient[] NUTRIENTS = BLSNutrient.values();
+    private static final int[] NO_ROWS = new int[0];
+    private static final int BITSET_THRESHOLD = 16;
+
+    private final int rowCount;
+    private final String[] blsKeys;
+    private final String[] foodNames;
+    private final double[][] values = new double[NUTRIENTS.length][];
+    //built lazily, SortedColumn has final fields only, so racing threads at worst build a column twice
+    private final SortedColumn[] sortedColumns = new SortedColumn[NUTRIENTS.length];
+
+    private NutrientIndex(int rowCount) {
+        this.rowCount = rowCount;
+        this.blsKeys = new String[rowCount];
+        this.foodNames = new String[rowCount];
+    }
+
+    /**
+     * Copies the numeric columns of a snapshot, the snapshot may be closed afterwards.
+     */
+    public static NutrientIndex of(ColumnarSnapshot snapshot) {
+        NutrientIndex index = new NutrientIndex(snapshot.getRowCount());
+        boolean hasFoodNames = snapshot.hasColumn(BLSNutrient.TEXT);
+        for (int row = 0; row < index.rowCount; row++) {
+            index.blsKeys[row] = snapshot.getText(BLSNutrient.BLS_SCHLUESSEL, row);
+            index.foodNames[row] = (hasFoodNames ? snapshot.getText(BLSNutrient.TEXT, row) : null);
+        }
+        for (BLSNutrient nutrient : NUTRIENTS) {
+            if(!FoodRecord.isText(nutrient) && snapshot.hasColumn(nutrient)) {
+                double[] column = new double[index.rowCount];
+                snapshot.getColumn(nutrient).get(column);
+                index.values[nutrient.ordinal()] = column;
+            }
+        }
+        return index;
+    }
+
+    static NutrientIndex of(Collection<FoodRecord> records) {
+        FoodRecord[] rows = records.toArray(new FoodRecord[0]);
+        Arrays.sort(rows, Comparator.comparing(FoodRecord::getBLSKey));
+        NutrientIndex index = new NutrientIndex(rows.length);
+        for (int row = 0; row < rows.length; row++) {
+            index.blsKeys[row] = rows[row].getBLSKey();
+            index.foodNames[row] = rows[row].getFoodName();
+        }
+        for (BLSNutrient nutrient : NUTRIENTS) {
+            if(!FoodRecord.isText(nutrient)) {
+                double[] column = new double[rows.length];
+                for (int row = 0; row < rows.length; row++) {
+                    column[row] = (rows[row].has(nutrient) ? rows[row].get(nutrient) : Double.NaN);
+                }
+                index.values[nutrient.ordinal()] = column;
+            }
+        }
+        return index;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public String getBLSKey(int row) {
+        return blsKeys[row];
+    }
+
+    public String getFoodName(int row) {
+        return foodNames[row];
+    }
+
+    /**
+     * @return amount of a nutrient, <code>NaN</code> if it is missing
+     */
+    public double get(BLSNutrient nutrient, int row) {
+        return getValues(nutrient)[row];
+    }
+
+    /**
+     * @return row of the food with the given BLS key, or <code>-1</code> if the index does not contain it
+     */
+    public int indexOf(String blsKey) {
+        int row = Arrays.binarySearch(blsKeys, blsKey);
+        return (row < 0 ? -1 : row);
+    }
+
+    public static Range between(BLSNutrient nutrient, double min, double max) {
+        return new Range(nutrient, min, max);
+    }
+
+    public static Range atLeast(BLSNutrient nutrient, double min) {
+        return new Range(nutrient, min, Double.POSITIVE_INFINITY);
+    }
+
+    public static Range greaterThan(BLSNutrient nutrient, double min) {
+        return new Range(nutrient, Math.nextUp(min), Double.POSITIVE_INFINITY);
+    }
+
+    public static Range atMost(BLSNutrient nutrient, double max) {
+        return new Range(nutrient, Double.NEGATIVE_INFINITY, max);
+    }
+
+    public static Range lessThan(BLSNutrient nutrient, double max) {
+        return new Range(nutrient, Double.NEGATIVE_INFINITY, Math.nextDown(max));
+    }
+
+    /**
+     * Finds the foods matching all ranges. Only the most selective range is read from its sorted index, the others are
+     * checked per candidate. Ranges matching a large share of all foods are intersected as bitsets instead.
+     *
+     * @return matching rows in ascending order
+     */
+    public int[] filter(Range... ranges) {
+        if(ranges.length == 0) {
+            return IntStream.range(0, rowCount).toArray();
+        }
+        int[] from = new int[ranges.length];
+        int[] to = new int[ranges.length];
+        int mostSelective = 0;
+        for (int i = 0; i < ranges.length; i++) {
+            SortedColumn column = getSortedColumn(ranges[i].nutrient);
+            from[i] = column.lowerBound(ranges[i].min);
+            to[i] = column.upperBound(ranges[i].max);
+            if(to[i] <= from[i]) {
+                return NO_ROWS;
+            }
+            if(to[i] - from[i] < to[mostSelective] - from[mostSelective]) {
+                mostSelective = i;
+            }
+        }
+
+        int[] matches = new int[to[mostSelective] - from[mostSelective]];
+        int matchCount = 0;
+        if(matches.length > rowCount / BITSET_THRESHOLD) {
+            //sorting many candidates costs more than intersecting one bitset per range, which yields rows in order
+            long[] bits = null;
+            for (int i = 0; i < ranges.length; i++) {
+                long[] rangeBits = new long[(rowCount + 63) >> 6];
+                int[] rows = getSortedColumn(ranges[i].nutrient).rows;
+                for (int j = from[i]; j < to[i]; j++) {
+                    rangeBits[rows[j] >> 6] |= 1L << rows[j];
+                }
+                if(bits == null) {
+                    bits = rangeBits;
+                } else {
+                    for (int j = 0; j < bits.length; j++) {
+                        bits[j] &= rangeBits[j];
+                    }
+                }
+            }
+            for (int i = 0; i < bits.length; i++) {
+                for (long word = bits[i]; word != 0; word &= word - 1) {
+                    matches[matchCount++] = (i << 6) + Long.numberOfTrailingZeros(word);
+                }
+            }
+            return Arrays.copyOf(matches, matchCount);
+        }
+        int[] candidates = getSortedColumn(ranges[mostSelective].nutrient).rows;
+        for (int i = from[mostSelective]; i < to[mostSelective]; i++) {
+            if(matches(ranges, mostSelective, candidates[i])) {
+                matches[matchCount++] = candidates[i];
+            }
+        }
+        matches = Arrays.copyOf(matches, matchCount);
+        Arrays.sort(matches);
+        return matches;
+    }
+
+    private boolean matches(Range[] ranges, int skippedRange, int row) {
+        for (int i = 0; i < ranges.length; i++) {
+            if(i != skippedRange) {
+                double value = getValues(ranges[i].nutrient)[row];
+                //NaN fails both comparisons
+                if(!(value >= ranges[i].min && value <= ranges[i].max)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return up to <code>k</code> rows with the highest amounts of a nutrient, highest first
+     */
+    public int[] top(BLSNutrient nutrient, int k) {
+        SortedColumn column = getSortedColumn(nutrient);
+        int[] rows = new int[Math.max(0, Math.min(k, column.rows.length))];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = column.rows[column.rows.length - 1 - i];
+        }
+        return rows;
+    }
+
+    /**
+     * @return up to <code>k</code> rows with the lowest amounts of a nutrient, lowest first
+     */
+    public int[] bottom(BLSNutrient nutrient, int k) {
+        SortedColumn column = getSortedColumn(nutrient);
+        return Arrays.copyOf(column.rows, Math.max(0, Math.min(k, column.rows.length)));
+    }
+
+    /**
+     * Finds the foods closest to a food in the given nutrients, see {@link #mostSimilar(double[], int, BLSNutrient...)}.
+     * Nutrients the food has no value for are ignored, the food itself is not part of the result.
+     */
+    public int[] mostSimilar(int row, int k, BLSNutrient... nutrients) {
+        double[] target = new double[nutrients.length];
+        for (int i = 0; i < nutrients.length; i++) {
+            target[i] = get(nutrients[i], row);
+        }
+        return mostSimilar(target, k, row, nutrients);
+    }
+
+    /**
+     * Finds the foods closest to the given amounts, by euclidean distance with every nutrient scaled by its standard
+     * deviation, so nutrients in grams do not drown out those in micrograms. A food without a value for a nutrient
+     * counts as having the mean amount of all foods. <code>NaN</code> targets are ignored. Foods are visited by their
+     * distance in the first nutrient and the search stops once that alone rules out the rest, so queries are fastest
+     * with the most varying nutrient first.
+     *
+     * @param target amounts, one per nutrient
+     * @return up to <code>k</code> rows, closest first
+     */
+    public int[] mostSimilar(double[] target, int k, BLSNutrient... nutrients) {
+        return mostSimilar(target, k, -1, nutrients);
+    }
+
+    private int[] mostSimilar(double[] target, int k, int excludedRow, BLSNutrient... nutrients) {
+        if(target.length != nutrients.length) {
+            throw new IllegalArgumentException("Got " + target.length + " amounts for " + nutrients.length + " nutrients");
+        }
+        Candidates candidates = new Candidates(Math.max(0, Math.min(k, rowCount)), nutrients.length);
+        if(candidates.rows.length == 0) {
+            return NO_ROWS;
+        }
+        SortedColumn primary = null;
+        for (int i = 0; i < nutrients.length; i++) {
+            SortedColumn column = getSortedColumn(nutrients[i]);
+            if(!Double.isNaN(target[i]) && column.rows.length > 0) {
+                primary = (primary == null ? column : primary);
+                candidates.addDimension(getValues(nutrients[i]), column, target[i]);
+            }
+        }
+        if(primary == null) {
+            for (int row = 0; row < rowCount && !candidates.isFull(); row++) {
+                if(row != excludedRow) {
+                    candidates.offer(row);
+                }
+            }
+            return candidates.getRows();
+        }
+
+        //visit foods by their distance in the first nutrient, which bounds their total distance from below
+        double primaryTarget = candidates.targets[0];
+        double primaryWeight = candidates.weights[0];
+        int high = primary.lowerBound(primaryTarget);
+        int low = high - 1;
+        while (low >= 0 || high < primary.values.length) {
+            int position = (high >= primary.values.length || (low >= 0 && primaryTarget - primary.values[low] < primary.values[high] - primaryTarget) ? low-- : high++);
+            double difference = primary.values[position] - primaryTarget;
+            if(candidates.isFull() && difference * difference * primaryWeight >= candidates.getWorstDistance()) {
+                break;
+            }
+            if(primary.rows[position] != excludedRow) {
+                candidates.offer(primary.rows[position]);
+            }
+        }
+        //foods without the first nutrient count with its mean
+        double difference = primary.mean - primaryTarget;
+        if(!candidates.isFull() || difference * difference * primaryWeight < candidates.getWorstDistance()) {
+            for (int row : primary.missingRows) {
+                if(row != excludedRow) {
+                    candidates.offer(row);
+                }
+            }
+        }
+        return candidates.getRows();
+    }
+
+    private double[] getValues(BLSNutrient nutrient) {
+        double[] column = values[nutrient.ordinal()];
+        if(column == null) {
+            throw new IllegalArgumentException("No numeric column " + nutrient.getTableColumnName() + " in nutrient index");
+        }
+        return column;
+    }
+
+    private SortedColumn getSortedColumn(BLSNutrient nutrient) {
+        SortedColumn column = sortedColumns[nutrient.ordinal()];
+        if(column == null) {
+            column = new SortedColumn(getValues(nutrient));
+            sortedColumns[nutrient.ordinal()] = column;
+        }
+        return column;
+    }
+
+    /**
+     * Closest foods of a similarity query so far, sorted by distance. Few foods are asked for, so insertion beats a heap.
+     */
+    private static class Candidates {
+        private final int[] rows;
+        private final double[] distances;
+        private final double[][] columns;
+        private final double[] means;
+        private final double[] weights;
+        private final double[] targets;
+        private int dimensions = 0;
+        private int found = 0;
+
+        private Candidates(int size, int maxDimensions) {
+            this.rows = new int[size];
+            this.distances = new double[size];
+            this.columns = new double[maxDimensions][];
+            this.means = new double[maxDimensions];
+            this.weights = new double[maxDimensions];
+            this.targets = new double[maxDimensions];
+        }
+
+        private void addDimension(double[] column, SortedColumn sortedColumn, double target) {
+            columns[dimensions] = column;
+            means[dimensions] = sortedColumn.mean;
+            //constant columns do not tell foods apart, any weight does
+            weights[dimensions] = (sortedColumn.standardDeviation > 0 ? 1 / (sortedColumn.standardDeviation * sortedColumn.standardDeviation) : 1);
+            targets[dimensions] = target;
+            dimensions++;
+        }
+
+        private boolean isFull() {
+            return found == rows.length;
+        }
+
+        private double getWorstDistance() {
+            return distances[found - 1];
+        }
+
+        private void offer(int row) {
+            double distance = 0;
+            for (int i = 0; i < dimensions; i++) {
+                double value = columns[i][row];
+                double difference = (value == value ? value : means[i]) - targets[i];
+                distance += difference * difference * weights[i];
+            }
+            if(!isFull() || distance < getWorstDistance()) {
+                int position = (isFull() ? found - 1 : found++);
+                while (position > 0 && distances[position - 1] > distance) {
+                    distances[position] = distances[position - 1];
+                    rows[position] = rows[position - 1];
+                    position--;
+                }
+                distances[position] = distance;
+                rows[position] = row;
+            }
+        }
+
+        private int[] getRows() {
+            return (isFull() ? rows : Arrays.copyOf(rows, found));
+        }
+    }
+
+    /**
+     * Closed range of amounts of one nutrient.
+     */
+    public static final class Range {
+        private final BLSNutrient nutrient;
+        private final double min;
+        private final double max;
+
+        private Range(BLSNutrient nutrient, double min, double max) {
+            if(Double.isNaN(min) || Double.isNaN(max)) {
+                throw new IllegalArgumentException("Range of " + nutrient.getTableColumnName() + " must not be NaN");
+            }
+            this.nutrient = nutrient;
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        public String toString() {
+            return min + " <= " + nutrient.getTableColumnName() + " <= " + max;
+        }
+    }
+
+    /**
+     * Rows having a value for a nutrient, sorted by that value, next to the sorted values themselves, so range bounds
+     * are found by binary search without indirection.
+     */
+    private static class SortedColumn {
+        private final int[] rows;
+        private final double[] values;
+        private final int[] missingRows;
+        private final double mean;
+        private final double standardDeviation;
+
+        private SortedColumn(double[] column) {
+            //ties keep row order, so results do not depend on the sort
+            this.rows = IntStream.range(0, column.length)
+                    .filter(row -> !Double.isNaN(column[row]))
+                    .boxed()
+                    .sorted(Comparator.comparingDouble(row -> column[row]))
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+            this.missingRows = IntStream.range(0, column.length).filter(row -> Double.isNaN(column[row])).toArray();
+            this.values = new double[rows.length];
+            double sum = 0;
+            for (int i = 0; i < rows.length; i++) {
+                values[i] = column[rows[i]];
+                sum += values[i];
+            }
+            this.mean = (rows.length > 0 ? sum / rows.length : 0);
+            double squares = 0;
+            for (double value : values) {
+                squares += (value - mean) * (value - mean);
+            }
+            this.standardDeviation = (rows.length > 0 ? Math.sqrt(squares / rows.length) : 0);
+        }
+
+        /**
+         * @return first position with a value of at least <code>min</code>
+         */
+        private int lowerBound(double min) {
+            int low = 0;
+            int high = values.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if(values[middle] < min) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * @return first position with a value greater than <code>max</code>
+         */
+        private int upperBound(double max) {
+            int low = 0;
+            int high = values.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if(values[middle] <= max) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+}
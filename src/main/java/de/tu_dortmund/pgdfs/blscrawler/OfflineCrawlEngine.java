@@ -0,0 +1,42 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import java.net.URL;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Re-parses food pages from a {@link PageCache} instead of downloading them, on a pool sized to the number of cores.
+ * Foods that cannot be re-parsed are reported as failed rows, failures are not retried.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+class OfflineCrawlEngine implements CrawlEngine {
+    private final PageCache pageCache;
+    private final CrawlMetrics metrics;
+    private final ExecutorService executorService = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+
+    OfflineCrawlEngine(PageCache pageCache, CrawlMetrics metrics) {
+        this.pageCache = pageCache;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void submit(int index, URL foodURL, FoodPageProcessor processor, RowSink rowSink) {
+        CrawlEngine.execute(executorService, () -> {
+            try {
+                long startNanos = System.nanoTime();
+                FetchedPage page = FetchedPage.of(pageCache.get(BLSCrawler.getBLSKey(foodURL)));
+                metrics.record(CrawlMetrics.Stage.FETCH, startNanos);
+                return new CrawledRow(index, foodURL, processor.process(foodURL, page));
+            } catch (Exception e) {
+                //a page missing in the cache or not matching the parser fails only its food, like an online crawl
+                return CrawledRow.failed(index, foodURL, e);
+            }
+        }, rowSink);
+    }
+
+    @Override
+    public void close() {
+        executorService.shutdownNow();
+    }
+}
@@ -0,0 +1,143 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import java.io.*;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Content-addressed on-disk cache of raw food pages. Pages are stored gzip-compressed under the SHA-256 hash of their
+ * content in <code>objects/</code>, so identical pages are stored once. <code>keys/&lt;BLS key&gt;</code> refers to the
+ * current page of a food and records its URL.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+class PageCache {
+    private final Path objectsDir;
+    private final Path keysDir;
+
+    PageCache(Path dir) throws IOException {
+        this.objectsDir = Files.createDirectories(dir.resolve("objects"));
+        this.keysDir = Files.createDirectories(dir.resolve("keys"));
+    }
+
+    void put(String blsKey, URL foodURL, String page) throws IOException {
+        byte[] content = page.getBytes(StandardCharsets.UTF_8);
+        String hash = sha256(content);
+        Path objectPath = getObjectPath(hash);
+        if(!Files.exists(objectPath)) {
+            Files.createDirectories(objectPath.getParent());
+            Path tempPath = Files.createTempFile(objectPath.getParent(), hash, ".tmp");
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(tempPath))) {
+                out.write(content);
+            }
+            moveAtomically(tempPath, objectPath);
+        }
+        Path tempPath = Files.createTempFile(keysDir, blsKey, ".tmp");
+        Files.write(tempPath, (hash + "\n" + foodURL + "\n").getBytes(StandardCharsets.UTF_8));
+        moveAtomically(tempPath, keysDir.resolve(blsKey));
+    }
+
+    /**
+     * @return URLs of all cached food pages
+     */
+    List<URL> getFoodURLs() throws IOException {
+        List<URL> foodURLs = new ArrayList<>();
+        try (Stream<Path> keyPaths = Files.list(keysDir)) {
+            for (Path keyPath : (Iterable<Path>) keyPaths::iterator) {
+                if(!keyPath.getFileName().toString().endsWith(".tmp")) {
+                    foodURLs.add(new URL(readKey(keyPath)[1]));
+                }
+            }
+        }
+        return foodURLs;
+    }
+
+    /**
+     * Reads a cached page through a memory mapping of its compressed file.
+     */
+    String get(String blsKey) throws IOException {
+        Path keyPath = keysDir.resolve(blsKey);
+        if(!Files.exists(keyPath)) {
+            throw new FileNotFoundException("No cached page for BLS key " + blsKey);
+        }
+        try (FileChannel channel = FileChannel.open(getObjectPath(readKey(keyPath)[0]), StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            try (InputStream in = new GZIPInputStream(new ByteBufferInputStream(mapped), 1 << 16)) {
+                ByteArrayOutputStream page = new ByteArrayOutputStream((int) channel.size() * 8);
+                byte[] buffer = new byte[1 << 16];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    page.write(buffer, 0, read);
+                }
+                return new String(page.toByteArray(), StandardCharsets.UTF_8);
+            }
+        }
+    }
+
+    private static String[] readKey(Path keyPath) throws IOException {
+        List<String> lines = Files.readAllLines(keyPath, StandardCharsets.UTF_8);
+        if(lines.size() < 2) {
+            throw new IOException("Corrupt cache entry " + keyPath);
+        }
+        return new String[]{lines.get(0), lines.get(1)};
+    }
+
+    private Path getObjectPath(String hash) {
+        return objectsDir.resolve(hash.substring(0, 2)).resolve(hash + ".html.gz");
+    }
+
+    static void moveAtomically(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    static String sha256(byte[] content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported by this JVM", e);
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if(!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses a stream to gzip on all cores. The stream is cut into blocks of 1 MiB, every block is compressed on its
+ * own into a complete gzip member on a pool of threads, and the members are written in the order of their blocks.
+ * Concatenated members are a valid gzip file (RFC 1952) that <code>gunzip</code>, <code>zcat</code> and
+ * {@link java.util.zip.GZIPInputStream} read as one stream, e.g. <code>zcat dump.sql.gz | mysql</code>.
+ * <p>
+ * Independent blocks compress slightly worse than a single member, which is negligible at this block size. At most
+ * two blocks per thread are compressed or waiting to be written, a writer faster than the compression waits for the
+ * oldest block.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+class ParallelGzipOutputStream extends OutputStream {
+    private static final int BLOCK_SIZE = 1 << 20;
+
+    private final OutputStream out;
+    private final ExecutorService executorService;
+    private final int maxPendingBlocks;
+    private final Deque<Future<byte[]>> pendingBlocks = new ArrayDeque<>();
+    private byte[] block = new byte[BLOCK_SIZE];
+    private int blockLength = 0;
+    private long membersWritten = 0;
+    private boolean finished = false;
+
+    ParallelGzipOutputStream(OutputStream out, int threads) {
+        if(threads < 1) {
+            throw new IllegalArgumentException("Number of threads must be positive, got " + threads);
+        }
+        this.out = out;
+        this.executorService = Executors.newFixedThreadPool(threads);
+        this.maxPendingBlocks = 2 * threads;
+    }
+
+    /**
+     * @return stream writing to <code>path</code>, gzip compressed on all cores if <code>compressed</code>
+     */
+    static OutputStream open(Path path, boolean compressed, OpenOption... options) throws IOException {
+        OutputStream out = Files.newOutputStream(path, options);
+        return (compressed ? new ParallelGzipOutputStream(out, Runtime.getRuntime().availableProcessors()) : out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if(blockLength == block.length) {
+            submitBlock();
+        }
+        block[blockLength++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            if(blockLength == block.length) {
+                submitBlock();
+            }
+            int copied = Math.min(length, block.length - blockLength);
+            System.arraycopy(bytes, offset, block, blockLength, copied);
+            blockLength += copied;
+            offset += copied;
+            length -= copied;
+        }
+    }
+
+    private void submitBlock() throws IOException {
+        if(finished) {
+            throw new IOException("Stream already finished");
+        }
+        final byte[] data = block;
+        final int length = blockLength;
+        pendingBlocks.add(executorService.submit(() -> compress(data, length)));
+        block = new byte[BLOCK_SIZE];
+        blockLength = 0;
+        while (pendingBlocks.size() >= maxPendingBlocks) {
+            writeOldestBlock();
+        }
+    }
+
+    private static byte[] compress(byte[] data, int length) throws IOException {
+        ByteArrayOutputStream member = new ByteArrayOutputStream(length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(member, 1 << 16)) {
+            gzip.write(data, 0, length);
+        }
+        return member.toByteArray();
+    }
+
+    private void writeOldestBlock() throws IOException {
+        try {
+            out.write(pendingBlocks.remove().get());
+            membersWritten++;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing");
+        } catch (ExecutionException e) {
+            throw new IOException("Could not compress block", e.getCause());
+        }
+    }
+
+    /**
+     * Writes the data so far as complete members, each flush ends a member.
+     */
+    @Override
+    public void flush() throws IOException {
+        if(blockLength > 0) {
+            submitBlock();
+        }
+        while (!pendingBlocks.isEmpty()) {
+            writeOldestBlock();
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes the remaining data without closing the underlying stream, which may still be forced to disk.
+     */
+    void finish() throws IOException {
+        if(!finished) {
+            //an empty stream still has to be a valid gzip file
+            if(blockLength > 0 || membersWritten == 0 && pendingBlocks.isEmpty()) {
+                submitBlock();
+            }
+            flush();
+            finished = true;
+            executorService.shutdown();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            executorService.shutdownNow();
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import java.io.Closeable;
+import java.net.URL;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * CPU-bound stage of the crawl pipeline between fetching and writing: parses downloaded pages on a pool sized to the
+ * number of cores. At most <code>capacity</code> pages wait for or are being parsed, a fetch stage has to
+ * {@link #reserve()} a slot before handing over a page and blocks while there is none, so fetching never runs further
+ * ahead of parsing than the queue allows.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+class ParseStage implements Closeable {
+    private final ExecutorService executorService = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    private final Semaphore slots;
+    private final int capacity;
+
+    ParseStage(int capacity) {
+        if(capacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be positive, got " + capacity);
+        }
+        this.slots = new Semaphore(capacity);
+        this.capacity = capacity;
+    }
+
+    /**
+     * Blocks until a slot in the queue is free. The slot is used by {@link #parse} or given back by
+     * {@link #release()}.
+     */
+    void reserve() throws InterruptedException {
+        slots.acquire();
+    }
+
+    /**
+     * Gives back a reserved slot without parsing a page, e.g. because the download failed.
+     */
+    void release() {
+        slots.release();
+    }
+
+    /**
+     * Parses the page in a reserved slot and hands the row to <code>rowSink</code>. Never blocks, so it can
+     * be called from I/O threads.
+     */
+    void parse(int index, URL foodURL, FetchedPage page, FoodPageProcessor processor, RowSink rowSink) {
+        try {
+            CrawlEngine.execute(executorService, () -> {
+                try {
+                    return new CrawledRow(index, foodURL, processor.process(foodURL, page));
+                } finally {
+                    slots.release();
+                }
+            }, rowSink);
+        } catch (RuntimeException e) {
+            slots.release();
+            throw e;
+        }
+    }
+
+    /**
+     * @return pages waiting for or being parsed
+     */
+    int getQueueDepth() {
+        return capacity - slots.availablePermits();
+    }
+
+    @Override
+    public void close() {
+        executorService.shutdownNow();
+    }
+}
@@ -0,0 +1,98 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URL;
+import java.util.concurrent.*;
+
+/**
+ * Retries food pages whose download failed with a retryable {@link FetchException}. Failed crawls are scheduled on a
+ * separate retry queue with jittered exponential backoff ("full jitter": a random delay up to
+ * <code>baseDelay * 2^(attempt - 1)</code>, capped at one minute), so waiting retries neither block the crawl nor
+ * hit the server in lockstep. A food that failed for good is handed over as a {@link CrawledRow#failed failed row}.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+class RetryingCrawlEngine implements CrawlEngine {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RetryingCrawlEngine.class);
+    private static final long MAX_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final CrawlEngine crawlEngine;
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final CrawlMetrics metrics;
+    private final ScheduledExecutorService retryExecutorService = Executors.newScheduledThreadPool(1);
+
+    RetryingCrawlEngine(CrawlEngine crawlEngine, int maxAttempts, long baseDelayMillis, CrawlMetrics metrics) {
+        if(maxAttempts < 1) {
+            throw new IllegalArgumentException("Maximum number of attempts must be positive, got " + maxAttempts);
+        }
+        this.crawlEngine = crawlEngine;
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMillis = baseDelayMillis;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void submit(int index, URL foodURL, FoodPageProcessor processor, RowSink rowSink) throws InterruptedException {
+        crawlEngine.submit(index, foodURL, processor, new AttemptSink(index, foodURL, processor, rowSink, 1));
+    }
+
+    private void retry(AttemptSink failedAttempt, FetchException e) {
+        long delay = ThreadLocalRandom.current().nextLong(Math.min(MAX_DELAY_MILLIS, baseDelayMillis << Math.min(failedAttempt.attempt - 1, 20)) + 1);
+        metrics.retried();
+        LOGGER.warn("Retrying " + failedAttempt.foodURL + " in " + delay + " ms after attempt " + failedAttempt.attempt + " of " + maxAttempts + " failed: " + e.getMessage());
+        retryExecutorService.schedule(() -> {
+            AttemptSink nextAttempt = new AttemptSink(failedAttempt.index, failedAttempt.foodURL, failedAttempt.processor, failedAttempt.rowSink, failedAttempt.attempt + 1);
+            try {
+                crawlEngine.submit(failedAttempt.index, failedAttempt.foodURL, failedAttempt.processor, nextAttempt);
+            } catch (InterruptedException | RuntimeException submitException) {
+                nextAttempt.accept(CompletableFuture.completedFuture(CrawledRow.failed(failedAttempt.index, failedAttempt.foodURL, submitException)));
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() {
+        retryExecutorService.shutdownNow();
+        crawlEngine.close();
+    }
+
+    /**
+     * Receives the result of one attempt from the wrapped engine in place of the real sink, and either retries it or
+     * passes it on.
+     */
+    private class AttemptSink implements RowSink {
+        private final int index;
+        private final URL foodURL;
+        private final FoodPageProcessor processor;
+        private final RowSink rowSink;
+        private final int attempt;
+
+        private AttemptSink(int index, URL foodURL, FoodPageProcessor processor, RowSink rowSink, int attempt) {
+            this.index = index;
+            this.foodURL = foodURL;
+            this.processor = processor;
+            this.rowSink = rowSink;
+            this.attempt = attempt;
+        }
+
+        @Override
+        public void accept(Future<CrawledRow> result) {
+            try {
+                result.get();
+                rowSink.accept(result);
+            } catch (ExecutionException e) {
+                Throwable cause = (e.getCause() instanceof CompletionException && e.getCause().getCause() != null ? e.getCause().getCause() : e.getCause());
+                if(cause instanceof FetchException && ((FetchException) cause).isRetryable() && attempt < maxAttempts && !retryExecutorService.isShutdown()) {
+                    retry(this, (FetchException) cause);
+                } else {
+                    rowSink.accept(CompletableFuture.completedFuture(CrawledRow.failed(index, foodURL, cause)));
+                }
+            } catch (InterruptedException | CancellationException e) {
+                rowSink.accept(CompletableFuture.completedFuture(CrawledRow.failed(index, foodURL, e)));
+            }
+        }
+    }
+}
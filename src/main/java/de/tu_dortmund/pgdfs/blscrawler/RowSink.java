@@ -0,0 +1,17 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import java.util.concurrent.Future;
+
+/**
+ * Receives the result of crawling a food from a {@link CrawlEngine}: the completion queue of the writer, or an engine
+ * wrapping another one that intercepts the result before passing it on.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+@FunctionalInterface
+interface RowSink {
+    /**
+     * Called once per submitted food with the completed crawl, possibly on an I/O thread, so it must not block.
+     */
+    void accept(Future<CrawledRow> row);
+}
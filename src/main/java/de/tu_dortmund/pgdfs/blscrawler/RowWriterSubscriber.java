@@ -0,0 +1,93 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Writes the foods of a {@link FoodPublisher} with a {@link FoodRowWriter}, which is completed if the crawl completes
+ * and closed either way. Foods are requested in batches, the next one as soon as half of the previous was written. A
+ * failing writer cancels the crawl.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+class RowWriterSubscriber implements Subscriber<FoodRecord> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RowWriterSubscriber.class);
+
+    private final FoodRowWriter writer;
+    private final int batchSize;
+    private final CompletableFuture<Void> result = new CompletableFuture<>();
+    private Subscription subscription;
+    private int outstanding = 0;
+
+    RowWriterSubscriber(FoodRowWriter writer, int batchSize) {
+        if(batchSize < 2) {
+            throw new IllegalArgumentException("Batch size must be at least 2, got " + batchSize);
+        }
+        this.writer = writer;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return completed once the writer is completed and closed, or exceptionally if the crawl or writing failed
+     */
+    CompletableFuture<Void> getResult() {
+        return result;
+    }
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+        this.subscription = subscription;
+        outstanding = batchSize;
+        subscription.request(batchSize);
+    }
+
+    @Override
+    public void onNext(FoodRecord record) {
+        if(result.isDone()) {
+            return;
+        }
+        try {
+            writer.writeRow(record.getBLSKey(), record);
+        } catch (IOException e) {
+            subscription.cancel();
+            fail(e);
+            return;
+        }
+        if(--outstanding <= batchSize / 2) {
+            subscription.request(batchSize - outstanding);
+            outstanding = batchSize;
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        LOGGER.error("Crawl failed, the output is incomplete", throwable);
+        fail(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        try {
+            writer.complete();
+            writer.close();
+        } catch (IOException e) {
+            fail(e);
+            return;
+        }
+        result.complete(null);
+    }
+
+    private void fail(Throwable throwable) {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            throwable.addSuppressed(e);
+        }
+        result.completeExceptionally(throwable);
+    }
+}
@@ -0,0 +1,132 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streams generated SQL to disk row by row. Rows are grouped into multi-row <code>INSERT</code> statements of at most
+ * <code>chunkSize</code> rows, so neither the crawler nor MariaDB ever has to hold the whole dump at once.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+class SQLDumpWriter implements FoodRowWriter {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Writer writer;
+    private final StringBuilder rowBuffer = new StringBuilder(1 << 12);
+    private char[] rowChars = new char[1 << 12];
+    private final String insertPrefix;
+    private final String insertSuffix;
+    private final int chunkSize;
+    private final CrawlMetrics metrics;
+    private int rowsInChunk = 0;
+    private long rowsWritten = 0;
+
+    /**
+     * @param compressed whether the file is written gzip compressed, see {@link ParallelGzipOutputStream}
+     */
+    SQLDumpWriter(Path path, boolean compressed, String header, int chunkSize, CrawlMetrics metrics) throws IOException {
+        this(path, compressed, header, chunkSize, "", metrics);
+    }
+
+    /**
+     * @param insertSuffix clause appended to every <code>INSERT</code> statement, e.g.
+     *                     <code>ON DUPLICATE KEY UPDATE ...</code>
+     */
+    SQLDumpWriter(Path path, boolean compressed, String header, int chunkSize, String insertSuffix, CrawlMetrics metrics) throws IOException {
+        this(new BufferedWriter(new OutputStreamWriter(ParallelGzipOutputStream.open(path, compressed, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), StandardCharsets.UTF_8), BUFFER_SIZE), header, chunkSize, insertSuffix, metrics);
+    }
+
+    SQLDumpWriter(Writer writer, String header, int chunkSize, String insertSuffix, CrawlMetrics metrics) throws IOException {
+        if(chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive, got " + chunkSize);
+        }
+        this.writer = writer;
+        this.chunkSize = chunkSize;
+        this.insertPrefix = buildInsertPrefix();
+        this.insertSuffix = insertSuffix;
+        this.metrics = metrics;
+        writer.write(header);
+        writer.write("\n\n");
+    }
+
+    private static String buildInsertPrefix() {
+        StringBuilder prefix = new StringBuilder("INSERT INTO food(");
+        boolean first = true;
+        for (BLSNutrient blsNutrient : BLSNutrient.values()) {
+            if(!first) {
+                prefix.append(", ");
+            }
+            first = false;
+            prefix.append(blsNutrient.getTableColumnName());
+        }
+        return prefix.append(")\n VALUES ").toString();
+    }
+
+    @Override
+    public void writeRow(String blsKey, FoodRecord record) throws IOException {
+        long startNanos = System.nanoTime();
+        rowBuffer.setLength(0);
+        record.appendValueList(rowBuffer);
+        long serializedNanos = metrics.record(CrawlMetrics.Stage.SERIALIZE, startNanos);
+        writeValueList(rowBuffer);
+        metrics.record(CrawlMetrics.Stage.WRITE, serializedNanos);
+    }
+
+    /**
+     * Appends one SQL value list, e.g. <code>('B100000', 'Brot', NULL, ...)</code>, to the current statement and
+     * starts a new statement once the current one holds <code>chunkSize</code> rows.
+     */
+    void writeValueList(StringBuilder valueList) throws IOException {
+        if(rowsInChunk == 0) {
+            writer.write(insertPrefix);
+        } else {
+            writer.write(",\n ");
+        }
+        if(rowChars.length < valueList.length()) {
+            rowChars = new char[Math.max(valueList.length(), rowChars.length * 2)];
+        }
+        //copy through a reused array, Writer.append(CharSequence) would create a String per row
+        valueList.getChars(0, valueList.length(), rowChars, 0);
+        writer.write(rowChars, 0, valueList.length());
+        rowsWritten++;
+        if(++rowsInChunk == chunkSize) {
+            endInsertStatement();
+        }
+    }
+
+    /**
+     * Writes a complete statement after the rows written so far.
+     */
+    void writeStatement(String statement) throws IOException {
+        endInsertStatement();
+        writer.write(statement);
+        writer.write(";\n");
+    }
+
+    private void endInsertStatement() throws IOException {
+        if(rowsInChunk > 0) {
+            writer.write(insertSuffix);
+            writer.write(";\n");
+            rowsInChunk = 0;
+        }
+    }
+
+    long getRowsWritten() {
+        return rowsWritten;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            endInsertStatement();
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * One of <code>count</code> disjoint parts of the BLS, so several nodes can crawl it side by side without talking to
+ * each other. Foods are assigned by the CRC32 of their BLS key, which is the same on every node and in every run, no
+ * matter in which order the search results list the foods.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+class Shard {
+    private final int index;
+    private final int count;
+    private final Set<String> allBLSKeys = new HashSet<>();
+    private final Set<String> shardBLSKeys = new HashSet<>();
+
+    Shard(int index, int count) {
+        if(count < 1 || index < 0 || index >= count) {
+            throw new IllegalArgumentException("Shard must be one of 0/" + count + " to " + (count - 1) + "/" + count + ", got " + index + "/" + count);
+        }
+        this.index = index;
+        this.count = count;
+    }
+
+    /**
+     * @param shard shard as given on the command line, e.g. <code>0/4</code> for the first of four shards
+     */
+    static Shard parse(String shard) {
+        int separatorIndex = shard.indexOf('/');
+        try {
+            return new Shard(Integer.parseInt(shard.substring(0, Math.max(0, separatorIndex))), Integer.parseInt(shard.substring(separatorIndex + 1)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Shard must be given as <index>/<count>, got \"" + shard + "\"", e);
+        }
+    }
+
+    static int indexOf(String blsKey, int count) {
+        CRC32 crc = new CRC32();
+        crc.update(blsKey.getBytes(StandardCharsets.UTF_8));
+        return (int) (crc.getValue() % count);
+    }
+
+    int getIndex() {
+        return index;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    boolean contains(String blsKey) {
+        return indexOf(blsKey, count) == index;
+    }
+
+    /**
+     * @return source of the food URLs of this shard, counting the foods of all shards on the way
+     */
+    FoodURLSource filter(FoodURLSource foodURLs) {
+        return consumer -> foodURLs.forEach(foodURL -> {
+            String blsKey = BLSCrawler.getBLSKey(foodURL);
+            boolean inShard = contains(blsKey);
+            synchronized (this) {
+                allBLSKeys.add(blsKey);
+                if(inShard) {
+                    shardBLSKeys.add(blsKey);
+                }
+            }
+            if(inShard) {
+                consumer.accept(foodURL);
+            }
+        });
+    }
+
+    /**
+     * @return distinct foods of all shards seen by {@link #filter(FoodURLSource)}
+     */
+    synchronized int getTotalFoods() {
+        return allBLSKeys.size();
+    }
+
+    /**
+     * @return distinct foods of this shard seen by {@link #filter(FoodURLSource)}
+     */
+    synchronized int getShardFoods() {
+        return shardBLSKeys.size();
+    }
+
+    @Override
+    public String toString() {
+        return index + "/" + count;
+    }
+}
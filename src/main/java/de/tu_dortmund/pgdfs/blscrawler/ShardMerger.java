@@ -0,0 +1,132 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Combines the partial outputs of all shards of a crawl, written by {@link ShardWriter}, into one output. Before
+ * anything is written, the merge checks that every shard is present exactly once and complete, that the partial
+ * outputs match their manifests and that all nodes crawled the same list of foods. Foods listed more than once are
+ * kept once. All partial outputs are read before the output is opened, so a failed merge leaves no output behind.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+class ShardMerger {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ShardMerger.class);
+
+    private ShardMerger() {
+    }
+
+    /**
+     * @return foods of all shards by BLS key, sorted
+     * @throws IOException if a shard is missing, incomplete or inconsistent with the others
+     */
+    static SortedMap<String, FoodRecord> read(List<Path> partialPaths) throws IOException {
+        if(partialPaths.isEmpty()) {
+            throw new IOException("No shards to merge");
+        }
+        ShardWriter.Manifest first = null;
+        ShardWriter.Manifest[] manifests = null;
+        Path[] paths = null;
+        for (Path partialPath : partialPaths) {
+            Path manifestPath = ShardWriter.getManifestPath(partialPath);
+            if(!Files.exists(manifestPath)) {
+                throw new IOException("Shard " + partialPath + " is incomplete, it has no manifest " + manifestPath);
+            }
+            ShardWriter.Manifest manifest = ShardWriter.Manifest.read(manifestPath);
+            if(first == null) {
+                first = manifest;
+                manifests = new ShardWriter.Manifest[manifest.shardCount];
+                paths = new Path[manifest.shardCount];
+            }
+            if(manifest.shardCount != manifests.length || manifest.shard < 0 || manifest.shard >= manifests.length) {
+                throw new IOException("Shard " + manifest.shard + "/" + manifest.shardCount + " of " + partialPath + " does not belong to a crawl of " + manifests.length + " shards");
+            }
+            if(paths[manifest.shard] != null) {
+                throw new IOException("Shard " + manifest.shard + "/" + manifests.length + " given twice, as " + paths[manifest.shard] + " and " + partialPath);
+            }
+            if(manifest.totalFoods != first.totalFoods) {
+                throw new IOException("Shard " + partialPath + " was crawled from a list of " + manifest.totalFoods + " foods, other shards from a different list. Recrawl the shards at the same time");
+            }
+            manifests[manifest.shard] = manifest;
+            paths[manifest.shard] = partialPath;
+        }
+        int expectedFoods = 0;
+        for (int shard = 0; shard < manifests.length; shard++) {
+            if(manifests[shard] == null) {
+                throw new IOException("Shard " + shard + "/" + manifests.length + " is missing");
+            }
+            expectedFoods += manifests[shard].foods;
+        }
+        if(expectedFoods != first.totalFoods) {
+            throw new IOException("Shards contain " + expectedFoods + " foods, but " + first.totalFoods + " were listed");
+        }
+
+        SortedMap<String, FoodRecord> records = new TreeMap<>();
+        int duplicateCount = 0;
+        for (int shard = 0; shard < manifests.length; shard++) {
+            duplicateCount += readPartial(paths[shard], manifests[shard], records);
+        }
+        if(records.size() != expectedFoods) {
+            throw new IOException("Shards contain " + records.size() + " distinct foods, but their manifests list " + expectedFoods);
+        }
+        if(duplicateCount > 0) {
+            LOGGER.info("Dropped " + duplicateCount + " duplicate rows");
+        }
+        LOGGER.info("Merging " + manifests.length + " shards into " + records.size() + " foods");
+        return records;
+    }
+
+    /**
+     * @return number of rows dropped because their food was read before
+     */
+    private static int readPartial(Path path, ShardWriter.Manifest manifest, Map<String, FoodRecord> records) throws IOException {
+        byte[] content = Files.readAllBytes(path);
+        if(!PageCache.sha256(content).equals(manifest.sha256)) {
+            throw new IOException("Shard " + path + " does not match its manifest, it was changed or copied incompletely");
+        }
+        int rows = 0;
+        int duplicates = 0;
+        InputStream in = new ByteArrayInputStream(content);
+        if(content.length >= 2 && (content[0] & 0xff) == 0x1f && (content[1] & 0xff) == 0x8b) {
+            //written with --compress
+            in = new GZIPInputStream(in, 1 << 16);
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            reader.readLine(); //column names
+            String line;
+            while ((line = reader.readLine()) != null) {
+                FoodRecord record = FoodRecord.parseLine(line);
+                rows++;
+                if(Shard.indexOf(record.getBLSKey(), manifest.shardCount) != manifest.shard) {
+                    throw new IOException("Food " + record.getBLSKey() + " in " + path + " does not belong to shard " + manifest.shard + "/" + manifest.shardCount);
+                }
+                FoodRecord previousRecord = records.putIfAbsent(record.getBLSKey(), record);
+                if(previousRecord != null) {
+                    duplicates++;
+                    if(!previousRecord.toLine().equals(record.toLine())) {
+                        LOGGER.warn("Food " + record.getBLSKey() + " is listed twice with different values, keeping the first");
+                    }
+                }
+            }
+        }
+        if(rows != manifest.rows) {
+            throw new IOException("Shard " + path + " has " + rows + " rows, but its manifest lists " + manifest.rows);
+        }
+        return duplicates;
+    }
+}
@@ -0,0 +1,115 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+/**
+ * Writes the partial output of a {@link Shard}: its foods as tab separated values (see
+ * {@link DelimitedFileWriter}), and once the shard has been crawled completely a manifest next to them, named like
+ * the partial output plus <code>.manifest</code>. The manifest is written last, so a partial output without manifest
+ * is incomplete and rejected by the {@link ShardMerger}.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+class ShardWriter implements FoodRowWriter {
+    private final Path path;
+    private final Shard shard;
+    private final DelimitedFileWriter delimitedFileWriter;
+    private int rows = 0;
+
+    ShardWriter(Path path, boolean compressed, Shard shard, CrawlMetrics metrics) throws IOException {
+        this.path = path;
+        this.shard = shard;
+        //an outdated manifest must not vouch for the partial output of this run
+        Files.deleteIfExists(getManifestPath(path));
+        this.delimitedFileWriter = new DelimitedFileWriter(path, compressed, DelimitedFileWriter.Format.TSV, metrics);
+    }
+
+    static Path getManifestPath(Path path) {
+        return path.resolveSibling(path.getFileName() + ".manifest");
+    }
+
+    @Override
+    public void writeRow(String blsKey, FoodRecord record) throws IOException {
+        delimitedFileWriter.writeRow(blsKey, record);
+        rows++;
+    }
+
+    @Override
+    public void complete() throws IOException {
+        delimitedFileWriter.complete();
+        Manifest manifest = new Manifest(shard.getIndex(), shard.getCount(), shard.getTotalFoods(), shard.getShardFoods(), rows, PageCache.sha256(Files.readAllBytes(path)));
+        manifest.write(getManifestPath(path));
+    }
+
+    @Override
+    public void close() throws IOException {
+        delimitedFileWriter.close();
+    }
+
+    /**
+     * Summary of a completely crawled shard.
+     */
+    static class Manifest {
+        final int shard;
+        final int shardCount;
+        /**
+         * distinct foods of all shards, as found in the search results by the node crawling this shard
+         */
+        final int totalFoods;
+        /**
+         * distinct foods of this shard
+         */
+        final int foods;
+        /**
+         * rows of the partial output, more than {@link #foods} if the search results list a food twice
+         */
+        final int rows;
+        final String sha256;
+
+        Manifest(int shard, int shardCount, int totalFoods, int foods, int rows, String sha256) {
+            this.shard = shard;
+            this.shardCount = shardCount;
+            this.totalFoods = totalFoods;
+            this.foods = foods;
+            this.rows = rows;
+            this.sha256 = sha256;
+        }
+
+        static Manifest read(Path path) throws IOException {
+            Properties properties = new Properties();
+            try (InputStream in = Files.newInputStream(path)) {
+                properties.load(in);
+            }
+            try {
+                return new Manifest(Integer.parseInt(properties.getProperty("shard")),
+                        Integer.parseInt(properties.getProperty("shardCount")),
+                        Integer.parseInt(properties.getProperty("totalFoods")),
+                        Integer.parseInt(properties.getProperty("foods")),
+                        Integer.parseInt(properties.getProperty("rows")),
+                        properties.getProperty("sha256"));
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid shard manifest " + path, e);
+            }
+        }
+
+        void write(Path path) throws IOException {
+            Properties properties = new Properties();
+            properties.setProperty("shard", String.valueOf(shard));
+            properties.setProperty("shardCount", String.valueOf(shardCount));
+            properties.setProperty("totalFoods", String.valueOf(totalFoods));
+            properties.setProperty("foods", String.valueOf(foods));
+            properties.setProperty("rows", String.valueOf(rows));
+            properties.setProperty("sha256", sha256);
+            Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+            try (OutputStream out = Files.newOutputStream(tempPath)) {
+                properties.store(out, "Shard " + shard + "/" + shardCount + " of the BLS crawler");
+            }
+            PageCache.moveAtomically(tempPath, path);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import java.net.URL;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Fetches every food page with a blocking request on a fixed pool of platform threads and hands it to the
+ * {@link ParseStage}, so the fetch threads only wait for the network. The adaptive limiter may keep some of the
+ * threads waiting while the server is overloaded.
+ * <p>
+ * Submitting blocks while every fetch thread is busy and as many pages are queued, a fetch thread blocks while the
+ * parse queue is full.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+class ThreadPoolCrawlEngine implements CrawlEngine {
+    private final ExecutorService executorService;
+    private final Semaphore fetchSlots;
+    private final CrawlerHttpClient httpClient;
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final ParseStage parseStage;
+
+    ThreadPoolCrawlEngine(int threads, CrawlerHttpClient httpClient, AdaptiveConcurrencyLimiter limiter, ParseStage parseStage) {
+        this.executorService = Executors.newFixedThreadPool(threads);
+        this.fetchSlots = new Semaphore(2 * threads);
+        this.httpClient = httpClient;
+        this.limiter = limiter;
+        this.parseStage = parseStage;
+    }
+
+    @Override
+    public void submit(int index, URL foodURL, FoodPageProcessor processor, RowSink rowSink) throws InterruptedException {
+        fetchSlots.acquire();
+        try {
+            executorService.execute(() -> {
+                try {
+                    FetchedPage page = BLSCrawler.fetchFoodPage(httpClient, foodURL, processor.getRequestHeaders(foodURL), limiter);
+                    parseStage.reserve();
+                    parseStage.parse(index, foodURL, page, processor, rowSink);
+                } catch (Exception e) {
+                    if(e instanceof InterruptedException) {
+                        Thread.currentThread().interrupt();
+                    }
+                    rowSink.accept(CrawlEngine.failed(e));
+                } finally {
+                    fetchSlots.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            fetchSlots.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() {
+        executorService.shutdownNow();
+        parseStage.close();
+    }
+}
@@ -0,0 +1,105 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Validates the foods of a crawl with a {@link FoodValidator} while they are written. Every row gets its derived
+ * columns and is handed on right away, unless the database would reject its BLS key; all other rows are written even
+ * if they break a rule. The values are copied into chunks of {@value FoodValidator#CHUNK_SIZE} rows, which are checked
+ * on the common pool once they are full, so only the values of one chunk are held besides the violations found so
+ * far.
+ * <p>
+ * The report is written by {@link #complete()}, a tab separated file with the BLS key, the table column and a
+ * description of every violation.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+class ValidatingRowWriter implements FoodRowWriter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ValidatingRowWriter.class);
+
+    private final FoodRowWriter writer;
+    private final Path reportPath;
+    private final List<CompletableFuture<List<FoodValidator.Violation>>> checkedChunks = new ArrayList<>();
+    private final AtomicLong checkNanos = new AtomicLong();
+    private FoodValidator chunk = new FoodValidator(0);
+    private int validatedRows = 0;
+    private int rejectedRows = 0;
+
+    /**
+     * @param reportPath report to write, replaced if it exists
+     */
+    ValidatingRowWriter(FoodRowWriter writer, Path reportPath) {
+        this.writer = writer;
+        this.reportPath = reportPath;
+    }
+
+    @Override
+    public void writeRow(String blsKey, FoodRecord record) throws IOException {
+        //foods that did not change since the last crawl are handed on as they are
+        if(record == null) {
+            writer.writeRow(blsKey, null);
+            return;
+        }
+        FoodValidator.derive(record);
+        chunk.add(record);
+        validatedRows++;
+        if(chunk.isFull()) {
+            checkChunk();
+        }
+        if(FoodValidator.isValidBLSKey(blsKey)) {
+            writer.writeRow(blsKey, record);
+        } else {
+            rejectedRows++;
+        }
+    }
+
+    private void checkChunk() {
+        FoodValidator fullChunk = chunk;
+        checkedChunks.add(CompletableFuture.supplyAsync(() -> {
+            long startNanos = System.nanoTime();
+            List<FoodValidator.Violation> violations = fullChunk.check();
+            checkNanos.addAndGet(System.nanoTime() - startNanos);
+            return violations;
+        }));
+        chunk = new FoodValidator(validatedRows);
+    }
+
+    @Override
+    public void complete() throws IOException {
+        if(chunk.getRowCount() > 0) {
+            checkChunk();
+        }
+        int violationCount = 0;
+        try (BufferedWriter report = Files.newBufferedWriter(reportPath, StandardCharsets.UTF_8)) {
+            report.write("SBLS\tcolumn\tviolation\n");
+            for (CompletableFuture<List<FoodValidator.Violation>> checkedChunk : checkedChunks) {
+                for (FoodValidator.Violation violation : checkedChunk.join()) {
+                    report.write(violation.blsKey + "\t" + violation.column + "\t" + (violation.rejected ? "rejected: " : "") + violation.message + "\n");
+                    violationCount++;
+                }
+            }
+        }
+        LOGGER.info("Validated " + validatedRows + " foods in " + TimeUnit.NANOSECONDS.toMillis(checkNanos.get()) + " ms, " + violationCount + " violations reported to " + reportPath.toAbsolutePath());
+        if(rejectedRows > 0) {
+            LOGGER.warn("Left out " + rejectedRows + " foods the database would reject");
+        }
+        writer.complete();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,46 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import java.net.URL;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs every blocking fetch on its own virtual thread and hands the page to the {@link ParseStage}. An adaptive limiter
+ * bounds the number of simultaneous connections, so thousands of fetches can wait cheaply without overloading the
+ * server, and a virtual thread blocks cheaply while the parse queue is full.
+ * <p>
+ * Only compiled by the <code>java21</code> Maven profile, {@link BLSCrawler} loads it reflectively.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+class VirtualThreadCrawlEngine implements CrawlEngine {
+    private final ExecutorService executorService = Executors.newVirtualThreadPerTaskExecutor();
+    private final CrawlerHttpClient httpClient;
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final ParseStage parseStage;
+
+    VirtualThreadCrawlEngine(CrawlerHttpClient httpClient, AdaptiveConcurrencyLimiter limiter, ParseStage parseStage) {
+        this.httpClient = httpClient;
+        this.limiter = limiter;
+        this.parseStage = parseStage;
+    }
+
+    @Override
+    public void submit(int index, URL foodURL, FoodPageProcessor processor, RowSink rowSink) {
+        executorService.execute(() -> {
+            try {
+                FetchedPage page = BLSCrawler.fetchFoodPage(httpClient, foodURL, processor.getRequestHeaders(foodURL), limiter);
+                parseStage.reserve();
+                parseStage.parse(index, foodURL, page, processor, rowSink);
+            } catch (Exception e) {
+                rowSink.accept(CrawlEngine.failed(e));
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        executorService.shutdownNow();
+        parseStage.close();
+    }
+}
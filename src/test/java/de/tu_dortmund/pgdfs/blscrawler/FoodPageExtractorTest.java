@@ -0,0 +1,60 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import org.jsoup.Jsoup;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that the fast parser built on {@link FoodPageExtractor} reads recorded food pages like the Jsoup parser.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+class FoodPageExtractorTest {
+    private static final String[] BLS_KEYS = {"B100000", "F110100", "M111100", "U010000"};
+
+    @Test
+    void parsesFixturesLikeJsoup() throws IOException {
+        for (String blsKey : BLS_KEYS) {
+            assertParsedLikeJsoup(blsKey, readFixture(blsKey));
+        }
+    }
+
+    @Test
+    void keepsInlineTagsOutOfNames() throws IOException {
+        String page = readFixture("B100000")
+                .replace("<td>Kilokalorien</td>", "<td>Kilo<span>kalorien</span></td>")
+                .replace("<td>Vitamin D</td>", "<td><span>Vitamin</span> <span>D</span></td>");
+        FoodRecord record = assertParsedLikeJsoup("B100000", page);
+        assertTrue(record.has(BLSNutrient.ENERGIE_KILOKALORIEN));
+    }
+
+    private static FoodRecord assertParsedLikeJsoup(String blsKey, String page) throws IOException {
+        String baseURI = "http://www.ernaehrung.de/lebensmittel/de/" + blsKey + "/Lebensmittel.php";
+        FoodRecord expected = BLSCrawler.parseFoodPage(blsKey, Jsoup.parse(page, baseURI));
+        FoodRecord actual = BLSCrawler.parseFoodPage(blsKey, page);
+        assertEquals(expected.toValueList(), actual.toValueList(), blsKey);
+        return actual;
+    }
+
+    private static String readFixture(String name) throws IOException {
+        try (InputStream in = FoodPageExtractorTest.class.getResourceAsStream("/fixtures/" + name + ".html")) {
+            if(in == null) {
+                throw new FileNotFoundException("No fixture " + name);
+            }
+            ByteArrayOutputStream page = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1 << 14];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                page.write(buffer, 0, read);
+            }
+            return new String(page.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compares {@link FoodRecord#parseAmount(CharSequence, int)} with {@link Double#parseDouble(String)}.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+class FoodRecordTest {
+    //g, mg and µg to mg
+    private static final int[] UNIT_SHIFTS = {3, 0, -3};
+
+    @Test
+    void parsesCommaAndDotDecimals() {
+        for (String amount : new String[]{"0,3", "0.3", "250", "12,75", "12.75", "1,", "1.", ",5", ".5", "99999,999"}) {
+            assertParsedLikeJava(amount);
+        }
+    }
+
+    @Test
+    void parsesLeadingZeros() {
+        for (String amount : new String[]{"0", "00", "007", "0,0", "000,001", "0000000000000000000000,1", "0,000000000000000000007"}) {
+            assertParsedLikeJava(amount);
+        }
+    }
+
+    @Test
+    void parsesNegativeAmounts() {
+        for (String amount : new String[]{"-0", "-0,0", "-00,000", "-1", "-0,3", "-12.75"}) {
+            assertParsedLikeJava(amount);
+        }
+    }
+
+    @Test
+    void parsesMoreThan15SignificantDigits() {
+        for (String amount : new String[]{"1234567890123456", "1234567890123456789", "0,12345678901234567", "9007199254740993", "3,14159265358979323846", "0000,0000123456789012345678"}) {
+            assertParsedLikeJava(amount);
+        }
+    }
+
+    @Test
+    void parsesExponentsOutsideExactPowersOfTen() {
+        //more than 22 decimal places, or more than 22 trailing zeros with the unit shift
+        for (String amount : new String[]{"0,0000000000000000000001", "0,00000000000000000000001", "1,00000000000000000000000001", "10000000000000000000000", "100000000000000000000000"}) {
+            assertParsedLikeJava(amount);
+        }
+        assertEquals(Double.parseDouble("1E25"), FoodRecord.parseAmount("1", 25));
+        assertEquals(Double.parseDouble("1E-25"), FoodRecord.parseAmount("1", -25));
+        assertEquals(Double.parseDouble("123.456E-22"), FoodRecord.parseAmount("123,456", -22));
+    }
+
+    @Test
+    void shiftsUnits() {
+        assertEquals(300.0, FoodRecord.parseAmount("0,3", 3));
+        assertEquals(0.3, FoodRecord.parseAmount("0,3", 0));
+        assertEquals(0.0003, FoodRecord.parseAmount("0,3", -3));
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            StringBuilder amount = new StringBuilder();
+            amount.append(random.nextInt(100000));
+            if(random.nextBoolean()) {
+                amount.append(random.nextBoolean() ? ',' : '.');
+                for (int j = random.nextInt(8); j >= 0; j--) {
+                    amount.append(random.nextInt(10));
+                }
+            }
+            assertParsedLikeJava(amount.toString());
+        }
+    }
+
+    @Test
+    void rejectsNonNumbers() {
+        for (String amount : new String[]{"", "-", ",", "1,2,3", "1-", "abc", "--1", "1 g"}) {
+            assertThrows(NumberFormatException.class, () -> FoodRecord.parseAmount(amount, 0), amount);
+        }
+    }
+
+    private static void assertParsedLikeJava(String amount) {
+        for (int unitShift : UNIT_SHIFTS) {
+            double expected = Double.parseDouble(amount.replace(',', '.') + "E" + unitShift);
+            //bitwise, to tell apart negative zero and off-by-one-ulp results
+            assertEquals(expected, FoodRecord.parseAmount(amount, unitShift), amount + " shifted by " + unitShift);
+        }
+    }
+}
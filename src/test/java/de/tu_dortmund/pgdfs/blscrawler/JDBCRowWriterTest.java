@@ -0,0 +1,188 @@
+package de.tu_dortmund.pgdfs.blscrawler;
+
+import ch.vorburger.mariadb4j.DB;
+import ch.vorburger.mariadb4j.DBConfigurationBuilder;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.sql.*;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Loads foods into an embedded MariaDB with a {@link JDBCRowWriter}.
+ *
+ * @author <a href="mailto:dominik.krueger@tu-dortmund.de">Dominik Kr&uuml;ger</a>
+ */
+class JDBCRowWriterTest {
+    private static DB db;
+    private static String url;
+
+    @BeforeAll
+    static void startDatabase() throws Exception {
+        DBConfigurationBuilder configuration = DBConfigurationBuilder.newBuilder();
+        configuration.setPort(0);
+        //the server refuses to run as root unless it is told to
+        configuration.addArg("--user=root");
+        db = DB.newEmbeddedDB(configuration.build());
+        db.start();
+        String serverURL = "jdbc:mariadb://localhost:" + db.getConfiguration().getPort() + "/";
+        //without DB.createDB, which needs the command line client
+        try (Connection connection = DriverManager.getConnection(serverURL + "?user=root");
+             Statement statement = connection.createStatement()) {
+            statement.execute("CREATE DATABASE foodscout");
+        }
+        url = serverURL + "foodscout?user=root";
+    }
+
+    @AfterAll
+    static void stopDatabase() throws Exception {
+        if(db != null) {
+            db.stop();
+        }
+    }
+
+    @BeforeEach
+    void dropTables() throws SQLException {
+        try (Connection connection = DriverManager.getConnection(url);
+             Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS " + JDBCRowWriter.TABLE + ", " + JDBCRowWriter.STAGING_TABLE + ", " + JDBCRowWriter.PREVIOUS_TABLE);
+        }
+    }
+
+    @Test
+    void loadsStagingTableAndSwapsItIn() throws Exception {
+        try (JDBCRowWriter writer = new JDBCRowWriter(url, BLSCrawler.TABLE_DEFINITION, 2, new CrawlMetrics())) {
+            writer.writeRow("B100000", food("B100000", "Brot", 250));
+            writer.writeRow("B200000", food("B200000", "Brötchen", 270));
+            writer.writeRow("B300000", food("B300000", "Toast", 260));
+            //a full batch is committed while the crawl is running, the live table does not exist yet
+            assertEquals(2, countRows(JDBCRowWriter.STAGING_TABLE));
+            assertFalse(tableExists(JDBCRowWriter.TABLE));
+            writer.complete();
+        }
+
+        assertFalse(tableExists(JDBCRowWriter.STAGING_TABLE));
+        assertFalse(tableExists(JDBCRowWriter.PREVIOUS_TABLE));
+        Map<String, Double> energy = readEnergy();
+        assertEquals(3, energy.size());
+        assertEquals(250, energy.get("B100000"));
+        assertEquals(270, energy.get("B200000"));
+        assertEquals(260, energy.get("B300000"));
+        assertEquals("Brötchen", readFoodName("B200000"));
+    }
+
+    @Test
+    void replacesPreviousFoodsAndCopiesUnchangedOnes() throws Exception {
+        load(food("B100000", "Brot", 250), food("B200000", "Brötchen", 270), food("B300000", "Toast", 260));
+
+        try (JDBCRowWriter writer = new JDBCRowWriter(url, BLSCrawler.TABLE_DEFINITION, 10, new CrawlMetrics())) {
+            writer.writeRow("B100000", food("B100000", "Brot", 240));
+            //not modified since the last crawl
+            writer.writeRow("B200000", null);
+            writer.writeRow("B400000", food("B400000", "Knäckebrot", 380));
+            writer.complete();
+        }
+
+        Map<String, Double> energy = readEnergy();
+        assertEquals(3, energy.size());
+        assertEquals(240, energy.get("B100000"));
+        assertEquals(270, energy.get("B200000"));
+        assertEquals(380, energy.get("B400000"));
+        assertFalse(energy.containsKey("B300000"));
+        assertEquals("Brötchen", readFoodName("B200000"));
+        assertFalse(tableExists(JDBCRowWriter.STAGING_TABLE));
+        assertFalse(tableExists(JDBCRowWriter.PREVIOUS_TABLE));
+    }
+
+    @Test
+    void rejectsUnchangedFoodMissingInLiveTable() throws Exception {
+        load(food("B100000", "Brot", 250));
+
+        try (JDBCRowWriter writer = new JDBCRowWriter(url, BLSCrawler.TABLE_DEFINITION, 10, new CrawlMetrics())) {
+            writer.writeRow("B200000", null);
+            assertThrows(IOException.class, writer::complete);
+        }
+
+        Map<String, Double> energy = readEnergy();
+        assertEquals(1, energy.size());
+        assertEquals(250, energy.get("B100000"));
+    }
+
+    @Test
+    void failedCrawlLeavesFoodUntouched() throws Exception {
+        load(food("B100000", "Brot", 250), food("B200000", "Brötchen", 270));
+
+        try (JDBCRowWriter writer = new JDBCRowWriter(url, BLSCrawler.TABLE_DEFINITION, 1, new CrawlMetrics())) {
+            writer.writeRow("B100000", food("B100000", "Brot", 240));
+            writer.writeRow("B300000", food("B300000", "Toast", 260));
+            //closed without completing, as after a failed crawl
+        }
+
+        Map<String, Double> energy = readEnergy();
+        assertEquals(2, energy.size());
+        assertEquals(250, energy.get("B100000"));
+        assertEquals(270, energy.get("B200000"));
+        //kept for inspection
+        assertEquals(2, countRows(JDBCRowWriter.STAGING_TABLE));
+    }
+
+    private static FoodRecord food(String blsKey, String foodName, double kilocalories) {
+        FoodRecord record = new FoodRecord(blsKey);
+        record.setFoodName(foodName);
+        record.set(BLSNutrient.ENERGIE_KILOKALORIEN, kilocalories);
+        return record;
+    }
+
+    private static void load(FoodRecord... records) throws IOException {
+        try (JDBCRowWriter writer = new JDBCRowWriter(url, BLSCrawler.TABLE_DEFINITION, 10, new CrawlMetrics())) {
+            for (FoodRecord record : records) {
+                writer.writeRow(record.getBLSKey(), record);
+            }
+            writer.complete();
+        }
+    }
+
+    private static Map<String, Double> readEnergy() throws SQLException {
+        Map<String, Double> energy = new HashMap<>();
+        try (Connection connection = DriverManager.getConnection(url);
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT SBLS, GCAL FROM " + JDBCRowWriter.TABLE)) {
+            while (resultSet.next()) {
+                energy.put(resultSet.getString(1), resultSet.getDouble(2));
+            }
+        }
+        return energy;
+    }
+
+    private static String readFoodName(String blsKey) throws SQLException {
+        try (Connection connection = DriverManager.getConnection(url);
+             PreparedStatement statement = connection.prepareStatement("SELECT ST FROM " + JDBCRowWriter.TABLE + " WHERE SBLS = ?")) {
+            statement.setString(1, blsKey);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? resultSet.getString(1) : null;
+            }
+        }
+    }
+
+    private static int countRows(String table) throws SQLException {
+        try (Connection connection = DriverManager.getConnection(url);
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM " + table)) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+
+    private static boolean tableExists(String table) throws SQLException {
+        try (Connection connection = DriverManager.getConnection(url);
+             ResultSet resultSet = connection.getMetaData().getTables("foodscout", null, table, null)) {
+            return resultSet.next();
+        }
+    }
+}